@@ -0,0 +1,421 @@
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.swing.JPanel;
+
+/**
+ * The work measured by the JMH benchmarks of the browser's hot paths ({@code jmh/benchmark/BrowserBenchmarks.java}):
+ * URL parsing and resolution, response header parsing, image decoding, image cache lookups from several threads at
+ * once, fetching from a {@link LocalServer}, and laying out and painting (offscreen) the {@code sampleInput} pages
+ * repeated until they are tens of thousands of lines long.
+ * <p/>
+ * JMH won't run benchmarks in the default package, and a class in a package can't see the browser's classes, so
+ * the work is set up here:  each benchmark calls the method of the same name once, for a {@link Workload} that does
+ * one operation each time it is called.  {@code sampleInput} is found through the {@code sampleInput} system
+ * property (which the build sets), or else in the current directory.
+ */
+public class BrowserBenchmark {
+
+	private static final int DOCUMENT_LINES = 50000;
+	private static final int PAGE_WIDTH = 800;
+	private static final int PAGE_HEIGHT = 600;
+
+	private static final MyURL PAGE = new MyURL("http://www.cis.gvsu.edu/~kurmasz/sampleInput/SubDirectory/index.txt");
+
+	/**
+	 * One operation to be measured, with whatever it needs already set up.  {@code call()} does the operation once
+	 * and returns its result (so the JIT can't optimize the work away);  {@code close()} is called after the last
+	 * one.
+	 */
+	public abstract static class Workload implements Callable<Object>, Closeable {
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+	private static File sampleInput() {
+		return new File(System.getProperty("sampleInput", "sampleInput"));
+	}
+
+	public static Workload parseAbsoluteURL() {
+		return new Workload() {
+			@Override
+			public Object call() {
+				return new MyURL("http://www.cis.gvsu.edu:8080/dir1/dir2/file.html");
+			}
+		};
+	}
+
+	public static Workload resolveRelativeLink() {
+		return new Workload() {
+			@Override
+			public Object call() {
+				return new MyURL("../Images/./logo1.png", PAGE);
+			}
+		};
+	}
+
+	public static Workload resolveRelativeLinkWithURLTable() {
+		final URLTable urls = new URLTable();
+		return new Workload() {
+			@Override
+			public Object call() {
+				return urls.resolve("../Images/./logo1.png", PAGE);
+			}
+		};
+	}
+
+	public static Workload hashMapLookup() {
+		final Map<MyURL, String> keyed = new HashMap<MyURL, String>();
+		final MyURL key = new MyURL("../Images/logo1.png", PAGE);
+		keyed.put(new MyURL("../Images/logo1.png", PAGE), "logo");
+		return new Workload() {
+			@Override
+			public Object call() {
+				return keyed.get(key);
+			}
+		};
+	}
+
+	private static final byte[] HEAD = ("HTTP/1.1 200 OK\r\n"
+			+ "Date: Mon, 18 May 2015 17:04:05 GMT\r\n"
+			+ "Server: Apache/2.2.15 (Red Hat)\r\n"
+			+ "Last-Modified: Thu, 14 May 2015 13:41:10 GMT\r\n"
+			+ "ETag: \"2c1d8f-4a6-515f2e8c5e580\"\r\n"
+			+ "Accept-Ranges: bytes\r\n"
+			+ "Content-Length: 1190\r\n"
+			+ "Cache-Control: max-age=3600\r\n"
+			+ "Keep-Alive: timeout=15, max=100\r\n"
+			+ "Connection: Keep-Alive\r\n"
+			+ "Content-Type: text/plain; charset=UTF-8\r\n"
+			+ "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+	public static Workload readResponseHead() {
+		final HttpInputStream in = new HttpInputStream(new RepeatingInputStream(HEAD));
+		final Map<String, String> headers = new HashMap<String, String>();
+		return new Workload() {
+			@Override
+			public Object call() throws IOException {
+				headers.clear();
+				return in.readResponseHead(headers);
+			}
+		};
+	}
+
+	// the way responses were read before HttpInputStream, for comparison
+	public static Workload readResponseHeadWithDataInputStream() {
+		final DataInputStream in = new DataInputStream(new RepeatingInputStream(HEAD));
+		final Map<String, String> headers = new HashMap<String, String>();
+		return new Workload() {
+			@Override
+			@SuppressWarnings("deprecation")
+			public Object call() throws IOException {
+				headers.clear();
+				String statusLine = in.readLine();
+				String line;
+				while ((line = in.readLine()) != null && !line.isEmpty()) {
+					int colon = line.indexOf(':');
+					if (colon != -1)
+						headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+				}
+				return statusLine;
+			}
+		};
+	}
+
+	// The images every imageCacheHits workload looks up, shared by all of the benchmark's threads.
+	private static ImageCache cachedImages;
+	private static MyURL[] cachedURLs;
+	private static final AtomicInteger lookups = new AtomicInteger();
+
+	// Looking up images that are all in the cache, on one of many threads.  (Each thread has a workload of its own,
+	// and starts at a different image, so the threads aren't all after the same one at once.)
+	public static Workload imageCacheHits() {
+		final ImageCache cache;
+		final MyURL[] images;
+		synchronized (BrowserBenchmark.class) {
+			if (cachedImages == null) {
+				cachedImages = new ImageCache();
+				cachedURLs = new MyURL[64];
+				for (int i = 0; i < cachedURLs.length; i++) {
+					cachedURLs[i] = new MyURL("image" + i + ".png", PAGE);
+					cachedImages.putImage(cachedURLs[i], new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB));
+				}
+			}
+			cache = cachedImages;
+			images = cachedURLs;
+		}
+		return new Workload() {
+			private int next = lookups.getAndIncrement();
+
+			@Override
+			public Object call() {
+				next = (next + 1) % images.length;
+				return cache.getImage(images[next]);
+			}
+		};
+	}
+
+	// Decoding a large photo at its full size, or subsampled to fit the page.
+	public static Workload decodePhoto(boolean fitToPage) throws IOException {
+		final byte[] photo = photo(4000, 3000);
+		final int maxWidth = fitToPage ? ImageDecoder.bucket(PAGE_WIDTH) : 0;
+		return new Workload() {
+			@Override
+			public Object call() throws IOException {
+				return ImageDecoder.decode(new ByteArrayInputStream(photo), maxWidth);
+			}
+		};
+	}
+
+	// A JPEG of noise-free gradients (a stand-in for a camera photo).
+	private static byte[] photo(int width, int height) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, Color.BLUE));
+		g.fillRect(0, 0, width, height);
+		g.dispose();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpeg", out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * A workload that fetches from a {@link LocalServer} serving {@code sampleInput} (so the numbers are the
+	 * client's, not the network's).
+	 */
+	private abstract static class ServerWorkload extends Workload {
+		final LocalServer server;
+		final ConnectionPool pool = new ConnectionPool();
+
+		ServerWorkload(long latency) throws IOException {
+			server = new LocalServer(sampleInput());
+			server.setLatency(latency);
+		}
+
+		@Override
+		public void close() throws IOException {
+			pool.close();
+			server.close();
+		}
+	}
+
+	// Fetching a page and an image, on a pooled connection or a new connection each.
+	public static Workload fetchTextAndImage(final boolean keepAlive) throws IOException {
+		return new ServerWorkload(0) {
+			private final MyURL text = server.url("basic.txt");
+			private final MyURL image = server.url("Images/logo1.png");
+
+			@Override
+			public Object call() throws IOException {
+				new WebTransactionClient(text, keepAlive ? pool : null).getText();
+				return new WebTransactionClient(image, keepAlive ? pool : null).getImage();
+			}
+		};
+	}
+
+	// Fetching a page's six images from a server 20 ms away, one at a time or pipelined.
+	public static Workload fetchSixImages(final boolean pipelined) throws IOException {
+		return new ServerWorkload(20) {
+			private final List<MyURL> images = new ArrayList<MyURL>();
+			private final Pipeline pipeline = new Pipeline(pool);
+
+			{
+				for (int i = 0; i < 3; i++)
+					for (String name : new String[]{"logo1.png", "logo2.jpeg"})
+						images.add(server.url("Images/" + name + "?" + i));
+			}
+
+			@Override
+			public Object call() throws IOException {
+				final List<Image> fetched = new ArrayList<Image>();
+				if (pipelined) {
+					pipeline.fetch(images, new Pipeline.Handler() {
+						@Override
+						public void handle(MyURL url, WebTransactionClient response) throws IOException {
+							fetched.add(response.getImage());
+						}
+					});
+				} else {
+					for (MyURL image : images)
+						fetched.add(new WebTransactionClient(image, pool).getImage());
+				}
+				return fetched;
+			}
+		};
+	}
+
+	/**
+	 * The sample pages, repeated until there are at least {@code DOCUMENT_LINES} lines, and what laying them out
+	 * needs.
+	 */
+	private static class Pages {
+		final List<String> lines;
+		final Document document;
+		final FontCache fonts = new FontCache(new JPanel().getFont(), new JPanel());
+		final Layout.ImageSource noImages = new Layout.ImageSource() {
+			@Override
+			public Image getImage(String url) {
+				return null;
+			}
+		};
+
+		Pages() throws IOException {
+			lines = sampleLines(sampleInput());
+			document = Document.parse(lines);
+		}
+	}
+
+	public static Workload parseSampleInput() throws IOException {
+		final Pages pages = new Pages();
+		return new Workload() {
+			@Override
+			public Object call() {
+				return Document.parse(pages.lines);
+			}
+		};
+	}
+
+	public static Workload layOutSampleInput() throws IOException {
+		final Pages pages = new Pages();
+		return new Workload() {
+			@Override
+			public Object call() {
+				return Layout.compute(pages.document, PAGE_WIDTH, 10, pages.fonts, pages.noImages);
+			}
+		};
+	}
+
+	// Painting one window-sized view of the document, at a different place each time (i.e., scrolling).
+	public static Workload paintOneScreen() throws IOException {
+		final Display display = new Display();
+		display.setSize(PAGE_WIDTH, PAGE_HEIGHT);  // before the document, so it is laid out only once
+		display.setDocument(new Pages().document);
+		final BufferedImage screen = new BufferedImage(PAGE_WIDTH, PAGE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		final int height = display.getPreferredSize().height;
+
+		return new Workload() {
+			private int scrolled = 0;
+
+			@Override
+			public Object call() {
+				scrolled = (scrolled + PAGE_HEIGHT / 3) % Math.max(1, height - PAGE_HEIGHT);
+				Graphics2D g = screen.createGraphics();
+				g.translate(0, -scrolled);
+				g.setClip(0, scrolled, PAGE_WIDTH, PAGE_HEIGHT);
+				g.setFont(display.getFont());
+				display.paintComponent(g);
+				g.dispose();
+				return screen;
+			}
+		};
+	}
+
+	// Going back a page and laying it out:  either the page kept by the history, or fetched again (over a connection
+	// with 20 ms of latency) and parsed.
+	public static Workload goBack(final boolean kept) throws IOException {
+		final Pages pages = new Pages();
+		return new ServerWorkload(20) {
+			private final MyURL previous = server.url("starterSample.txt");
+			private final History history = new History();
+
+			{
+				history.visit(previous, Document.parse(SimpleBrowser.readDocument(new WebTransactionClient(previous,
+						pool), previous)));
+				history.visit(server.url("basic.txt"), Document.parse(Arrays.asList("the current page")));
+			}
+
+			@Override
+			public Object call() throws IOException {
+				History.Entry back = history.previous();
+				history.show(back);
+				Document document = back.document();
+				if (!kept)
+					document = Document.parse(SimpleBrowser.readDocument(new WebTransactionClient(previous, pool),
+							previous));
+				Layout layout = Layout.compute(document, PAGE_WIDTH, 10, pages.fonts, pages.noImages);
+				history.show(history.next());
+				return layout;
+			}
+		};
+	}
+
+	// All the lines of the sample pages, repeated until there are at least DOCUMENT_LINES of them.
+	private static List<String> sampleLines(File sampleInput) throws IOException {
+		List<String> sample = new ArrayList<String>();
+		readPages(sampleInput, sample);
+		if (sample.isEmpty())
+			sample.add("No *sampleInput* directory here, so this _line_ is used instead. [[basic.txt A link]]");
+		List<String> lines = new ArrayList<String>(DOCUMENT_LINES + sample.size());
+		while (lines.size() < DOCUMENT_LINES)
+			lines.addAll(sample);
+		return lines;
+	}
+
+	private static void readPages(File directory, List<String> lines) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			if (file.isDirectory()) {
+				readPages(file, lines);
+			} else if (file.getName().endsWith(".txt")) {
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(new FileInputStream(file), StandardCharsets.ISO_8859_1));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null)
+						lines.add(line);
+				} finally {
+					reader.close();
+				}
+			}
+		}
+	}
+
+	// The same bytes over and over, forever (like a connection that keeps sending the same response).
+	private static class RepeatingInputStream extends InputStream {
+		private final byte[] bytes;
+		private int position = 0;
+
+		RepeatingInputStream(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read() {
+			int b = bytes[position] & 0xff;
+			position = (position + 1) % bytes.length;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			int count = Math.min(len, bytes.length - position);
+			System.arraycopy(bytes, position, b, off, count);
+			position = (position + count) % bytes.length;
+			return count;
+		}
+	}
+}
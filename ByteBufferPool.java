@@ -0,0 +1,58 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A pool of equally sized direct {@code ByteBuffer}s.  Direct buffers are expensive to allocate and are freed only
+ * when the garbage collector gets around to them, so connections borrow one for their lifetime and hand it back
+ * when they close instead of allocating a new one each time.
+ */
+public class ByteBufferPool {
+
+	public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+	public static final int DEFAULT_MAX_IDLE = 32;
+
+	private final int bufferSize;
+	private final int maxIdle;
+	private final Deque<ByteBuffer> idle = new ArrayDeque<ByteBuffer>();
+
+	public ByteBufferPool() {
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_IDLE);
+	}
+
+	/**
+	 * @param bufferSize the capacity of each buffer
+	 * @param maxIdle    the most buffers kept for reuse; extra buffers that are returned are left to the GC
+	 */
+	public ByteBufferPool(int bufferSize, int maxIdle) {
+		this.bufferSize = bufferSize;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * @return an empty buffer (position 0, limit at capacity).
+	 */
+	public synchronized ByteBuffer acquire() {
+		ByteBuffer buffer = idle.pollLast();
+		return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * Return a buffer to the pool.  The caller must not use it afterwards.
+	 *
+	 * @param buffer a buffer that came from {@link #acquire()}
+	 */
+	public synchronized void release(ByteBuffer buffer) {
+		if (buffer.capacity() != bufferSize || idle.size() >= maxIdle)
+			return;
+		buffer.clear();
+		idle.addLast(buffer);
+	}
+
+	/**
+	 * @return the number of buffers waiting to be reused.
+	 */
+	public synchronized int idleCount() {
+		return idle.size();
+	}
+}
@@ -0,0 +1,120 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A response body sent with {@code Transfer-Encoding: chunked}.  Strips the chunk framing and reports end of
+ * stream after the last (zero-length) chunk and its trailers, so the connection underneath can be reused.
+ */
+public class ChunkedInputStream extends FilterInputStream {
+
+	private long chunkRemaining = 0;  // bytes left in the current chunk
+	private boolean done = false;     // true once the last chunk and the trailers have been read
+
+	/**
+	 * @param in the connection's input stream, positioned at the start of the body
+	 */
+	public ChunkedInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextChunk())
+			return -1;
+		int b = in.read();
+		if (b == -1)
+			throw new IOException("Connection closed in the middle of a chunk");
+		chunkRemaining--;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!nextChunk())
+			return -1;
+		int count = in.read(b, off, (int) Math.min(len, chunkRemaining));
+		if (count == -1)
+			throw new IOException("Connection closed in the middle of a chunk");
+		chunkRemaining -= count;
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0 || !nextChunk())
+			return 0;
+		long skipped = in.skip(Math.min(n, chunkRemaining));
+		chunkRemaining -= skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return done ? 0 : (int) Math.min(in.available(), chunkRemaining);
+	}
+
+	/**
+	 * @return true once the whole body (including the trailers) has been read.
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	// Make sure we are positioned inside a chunk with data left in it.  Returns false at the end of the body.
+	private boolean nextChunk() throws IOException {
+		if (done)
+			return false;
+		if (chunkRemaining > 0)
+			return true;
+
+		// every chunk but the first is preceded by the CRLF that ended the previous chunk's data
+		String sizeLine = readLine();
+		if (sizeLine.isEmpty())
+			sizeLine = readLine();
+
+		// ignore chunk extensions (";name=value")
+		int extension = sizeLine.indexOf(';');
+		if (extension != -1)
+			sizeLine = sizeLine.substring(0, extension);
+		try {
+			chunkRemaining = Long.parseLong(sizeLine.trim(), 16);
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad chunk size: " + sizeLine);
+		}
+
+		// the last chunk is followed by optional trailers and a blank line
+		if (chunkRemaining == 0) {
+			while (!readLine().isEmpty()) {
+				// trailers are ignored
+			}
+			done = true;
+			return false;
+		}
+		return true;
+	}
+
+	private String readLine() throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1)
+				throw new IOException("Connection closed in the middle of the chunk framing");
+			if (b != '\r')
+				line.append((char) b);
+		}
+		return line.toString();
+	}
+
+	// The underlying stream belongs to the connection, so closing the body must not close it.
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
@@ -0,0 +1,468 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pool of keep-alive connections, grouped by host and port, so that sequential requests to the same server
+ * (e.g., a page and all of its images) reuse one socket instead of paying for a new TCP handshake every time.
+ * <p/>
+ * A connection is checked out with {@link #checkOut(MyURL)} and must be handed back with either
+ * {@link #checkIn(Connection)} (the response was read completely and the socket can be reused) or
+ * {@link #discard(Connection)} (the socket is in an unknown state and must be closed).
+ * <p/>
+ * Connections are made either with a plain {@code Socket} or with a {@code SocketChannel} that reads into pooled
+ * direct buffers (see {@link Transport}); the rest of the client can't tell the difference.  Host names are looked
+ * up through a {@link DnsCache}, and each of a host's addresses is tried in turn until one answers.
+ */
+public class ConnectionPool {
+
+	public static final long DEFAULT_IDLE_TIMEOUT = 15000;  // milliseconds
+	public static final int DEFAULT_MAX_PER_HOST = 6;
+
+	// how long to wait for each of a host's addresses to answer before trying the next one
+	public static final int CONNECT_TIMEOUT = 10000;  // milliseconds
+
+	// how long a read waits for the server before giving up (e.g., on a server that takes a request and never answers)
+	public static final int DEFAULT_READ_TIMEOUT = 30000;  // milliseconds
+
+	// A socket's health check is a read that has to time out, which costs at least a millisecond, so sockets that
+	// were in use more recently than this are trusted.  (If one turns out to be dead, the request is retried.)
+	private static final long TRUSTED_IDLE = 1000;  // milliseconds
+
+	/**
+	 * How connections are opened.
+	 */
+	public static enum Transport {
+		/** {@code java.net.Socket} streams, buffered on the heap */
+		SOCKET,
+		/** non-blocking {@code SocketChannel}s that read into direct buffers borrowed from a {@link ByteBufferPool} */
+		CHANNEL
+	}
+
+	private final long idleTimeout;
+	private final int maxPerHost;
+	private final Transport transport;
+	private final DnsCache dns;
+	private final ByteBufferPool buffers = new ByteBufferPool();
+	private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+	// idle connections, most recently used last
+	private final Map<String, Deque<Connection>> idle = new HashMap<String, Deque<Connection>>();
+
+	// number of open connections (idle and checked out) per host
+	private final Map<String, Integer> open = new HashMap<String, Integer>();
+
+	private boolean closed = false;
+
+	/**
+	 * A single socket to a server, along with its streams.
+	 */
+	public static class Connection {
+		private final String key;
+		private final Socket socket;
+		private final SocketChannel channel;  // null for the SOCKET transport
+		private final Selector selector;      // what the channel's reads and writes wait on
+		private final ByteBufferPool buffers;  // where the channel's buffer goes when it closes
+		private final HttpInputStream in;
+		private final OutputStream out;
+		private long lastUsed;
+		private int readTimeout = 0;
+		private int requests = 0;
+		private boolean closed = false;
+
+		private Connection(String key, Socket socket) throws IOException {
+			this.key = key;
+			this.socket = socket;
+			this.channel = null;
+			this.selector = null;
+			this.buffers = null;
+			this.in = new HttpInputStream(socket.getInputStream());
+			this.out = socket.getOutputStream();
+		}
+
+		private Connection(String key, SocketChannel channel, ByteBufferPool buffers) throws IOException {
+			this.key = key;
+			this.socket = channel.socket();
+			this.channel = channel;
+			this.buffers = buffers;
+			this.selector = Selector.open();
+			ByteBuffer buffer = buffers.acquire();
+			try {
+				this.in = new HttpInputStream(channel, selector, buffer);
+			} catch (IOException e) {
+				selector.close();
+				buffers.release(buffer);
+				throw e;
+			}
+
+			// (Channels.newOutputStream won't write to a non-blocking channel)
+			this.out = new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[]{(byte) b}, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					ByteBuffer bytes = ByteBuffer.wrap(b, off, len);
+					while (bytes.hasRemaining())
+						if (Connection.this.channel.write(bytes) == 0)
+							in.await(SelectionKey.OP_WRITE);
+				}
+
+				@Override
+				public void close() throws IOException {
+					Connection.this.channel.close();
+				}
+			};
+		}
+
+		public HttpInputStream input() {
+			return in;
+		}
+
+		// Give up on reads that wait longer than readTimeout milliseconds.  (A channel's socket ignores SO_TIMEOUT, so
+		// its stream does the waiting itself.)
+		private void setReadTimeout(int readTimeout) throws IOException {
+			this.readTimeout = readTimeout;
+			if (channel != null)
+				in.setReadTimeout(readTimeout);
+			else
+				socket.setSoTimeout(readTimeout);
+		}
+
+		public OutputStream output() {
+			return out;
+		}
+
+		/**
+		 * @return the number of requests that have been sent on this connection (including the current one).
+		 */
+		public int requests() {
+			return requests;
+		}
+
+		// Check that the server hasn't closed an idle connection.  An idle connection should have nothing to read, so
+		// a short read that times out means the socket is still healthy, while EOF (or unexpected data) means it isn't.
+		private boolean isHealthy() {
+			if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown())
+				return false;
+			if (channel != null)
+				return in.isIdleChannelHealthy();
+			if (System.currentTimeMillis() - lastUsed < TRUSTED_IDLE)
+				return true;
+			try {
+				socket.setSoTimeout(1);
+				try {
+					in.read();
+					return false;
+				} finally {
+					socket.setSoTimeout(readTimeout);
+				}
+			} catch (SocketTimeoutException e) {
+				return true;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		// Close the connection and give its selector and buffer back.  Only the thread using the connection (or the pool, for an
+		// idle one) may do this:  the buffer may be handed to another connection straight away.
+		synchronized void close() {
+			if (closed)
+				return;
+			closed = true;
+			closeSocket();
+			if (selector != null) {
+				try {
+					selector.close();
+				} catch (IOException e) {
+					// as for the socket
+				}
+			}
+			if (buffers != null)
+				buffers.release(in.buffer());
+		}
+
+		/**
+		 * Close the socket from another thread, e.g., to cancel a request that is being read.  The thread reading
+		 * from the connection gets an {@code IOException}, and gives the connection back (and its buffer with it)
+		 * with {@link ConnectionPool#discard(Connection)} as usual;  the buffer isn't released here, since that
+		 * thread may still be filling it.
+		 */
+		public void abort() {
+			closeSocket();
+
+			// (a closed selector can't be woken, and has nobody waiting on it anyway)
+			synchronized (this) {
+				if (!closed)
+					in.wakeUp();
+			}
+		}
+
+		private void closeSocket() {
+			try {
+				if (channel != null)
+					channel.close();
+				else
+					socket.close();
+			} catch (IOException e) {
+				// nothing useful to do; the socket is being thrown away anyway
+			}
+		}
+	}
+
+	public ConnectionPool() {
+		this(DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_PER_HOST);
+	}
+
+	/**
+	 * @param idleTimeout how long (in milliseconds) an unused connection is kept open
+	 * @param maxPerHost  the maximum number of connections open to any one host at a time
+	 */
+	public ConnectionPool(long idleTimeout, int maxPerHost) {
+		this(idleTimeout, maxPerHost, Transport.SOCKET);
+	}
+
+	/**
+	 * @param idleTimeout how long (in milliseconds) an unused connection is kept open
+	 * @param maxPerHost  the maximum number of connections open to any one host at a time
+	 * @param transport   how new connections are opened
+	 */
+	public ConnectionPool(long idleTimeout, int maxPerHost, Transport transport) {
+		this(idleTimeout, maxPerHost, transport, DnsCache.shared());
+	}
+
+	/**
+	 * @param idleTimeout how long (in milliseconds) an unused connection is kept open
+	 * @param maxPerHost  the maximum number of connections open to any one host at a time
+	 * @param transport   how new connections are opened
+	 * @param dns         where host names are looked up
+	 */
+	public ConnectionPool(long idleTimeout, int maxPerHost, Transport transport, DnsCache dns) {
+		this.idleTimeout = idleTimeout;
+		this.maxPerHost = maxPerHost;
+		this.transport = transport;
+		this.dns = dns;
+	}
+
+	/**
+	 * Set how long a read on a newly opened connection waits for the server before it fails with a
+	 * {@code SocketTimeoutException}.
+	 *
+	 * @param readTimeout the timeout, in milliseconds (0 to wait for ever)
+	 */
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Open a connection that doesn't belong to any pool.  The caller is responsible for closing it.
+	 *
+	 * @param url the URL that is about to be requested
+	 * @return a new connection to {@code url}'s server.
+	 * @throws IOException if the connection can't be opened.
+	 */
+	static Connection connect(MyURL url) throws IOException {
+		Connection connection = open(url, DnsCache.shared(), Transport.SOCKET, null, DEFAULT_READ_TIMEOUT);
+		connection.requests++;
+		return connection;
+	}
+
+	// Connect to the first of the host's addresses that answers.
+	private static Connection open(MyURL url, DnsCache dns, Transport transport, ByteBufferPool buffers,
+			int readTimeout) throws IOException {
+		List<InetAddress> addresses = dns.lookup(url.domainName());
+		IOException failure = null;
+		for (InetAddress address : addresses) {
+			InetSocketAddress endpoint = new InetSocketAddress(address, url.port());
+			if (transport == Transport.CHANNEL) {
+				SocketChannel channel = SocketChannel.open();
+				try {
+					channel.socket().connect(endpoint, CONNECT_TIMEOUT);
+					Connection connection = new Connection(keyFor(url), channel, buffers);
+					connection.setReadTimeout(readTimeout);
+					return connection;
+				} catch (IOException e) {
+					channel.close();
+					failure = e;
+				}
+			} else {
+				Socket socket = new Socket();
+				try {
+					socket.connect(endpoint, CONNECT_TIMEOUT);
+					Connection connection = new Connection(keyFor(url), socket);
+					connection.setReadTimeout(readTimeout);
+					return connection;
+				} catch (IOException e) {
+					socket.close();
+					failure = e;
+				}
+			}
+		}
+
+		// none of them answered:  the host may have moved, so look it up again next time
+		dns.invalidate(url.domainName());
+		throw failure;
+	}
+
+	private static String keyFor(MyURL url) {
+		return url.domainName() + ":" + url.port();
+	}
+
+	/**
+	 * Get a connection to {@code url}'s server:  a healthy idle connection if there is one, or a new one otherwise.
+	 * Blocks while the host already has {@code maxPerHost} connections checked out.
+	 *
+	 * @param url the URL that is about to be requested
+	 * @return a connection that is ready for a new request.
+	 * @throws IOException if the connection can't be opened.
+	 */
+	public Connection checkOut(MyURL url) throws IOException {
+		String key = keyFor(url);
+		synchronized (this) {
+			while (true) {
+				if (closed)
+					throw new IOException("Connection pool is closed");
+				evictExpired();
+
+				// reuse the most recently used idle connection that is still alive
+				Deque<Connection> queue = idle.get(key);
+				while (queue != null && !queue.isEmpty()) {
+					Connection connection = queue.pollLast();
+					if (connection.isHealthy()) {
+						connection.requests++;
+						return connection;
+					}
+					connection.close();
+					release(key);
+				}
+
+				// reserve a slot for a new connection if the host isn't at its limit
+				if (count(key) < maxPerHost) {
+					open.put(key, count(key) + 1);
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for a connection to " + key);
+				}
+			}
+		}
+
+		// connect outside the lock so one slow server doesn't hold up the others
+		try {
+			Connection connection = open(url, dns, transport, buffers, readTimeout);
+			connection.requests++;
+			return connection;
+		} catch (IOException e) {
+			synchronized (this) {
+				release(key);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Return a connection whose response has been read completely, so it can be reused.
+	 *
+	 * @param connection the connection to return
+	 */
+	public synchronized void checkIn(Connection connection) {
+		if (closed) {
+			connection.close();
+			release(connection.key);
+			return;
+		}
+		connection.lastUsed = System.currentTimeMillis();
+		Deque<Connection> queue = idle.get(connection.key);
+		if (queue == null) {
+			queue = new ArrayDeque<Connection>();
+			idle.put(connection.key, queue);
+		}
+		queue.addLast(connection);
+		notifyAll();
+	}
+
+	/**
+	 * Close a connection that can't be reused (e.g., the server asked to close it, or the response wasn't read
+	 * completely).
+	 *
+	 * @param connection the connection to close
+	 */
+	public synchronized void discard(Connection connection) {
+		connection.close();
+		release(connection.key);
+	}
+
+	/**
+	 * @return the number of idle connections currently held by the pool.
+	 */
+	public synchronized int idleCount() {
+		int total = 0;
+		for (Deque<Connection> queue : idle.values())
+			total += queue.size();
+		return total;
+	}
+
+	/**
+	 * Close all idle connections.  Connections that are checked out are closed when they are returned.
+	 */
+	public synchronized void close() {
+		closed = true;
+		for (Deque<Connection> queue : idle.values()) {
+			for (Connection connection : queue) {
+				connection.close();
+				release(connection.key);
+			}
+		}
+		idle.clear();
+		notifyAll();
+	}
+
+	private void evictExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<Deque<Connection>> queues = idle.values().iterator();
+		while (queues.hasNext()) {
+			Deque<Connection> queue = queues.next();
+
+			// oldest connections are at the front
+			while (!queue.isEmpty() && now - queue.peekFirst().lastUsed > idleTimeout) {
+				Connection connection = queue.pollFirst();
+				connection.close();
+				release(connection.key);
+			}
+			if (queue.isEmpty())
+				queues.remove();
+		}
+	}
+
+	private int count(String key) {
+		Integer count = open.get(key);
+		return count == null ? 0 : count;
+	}
+
+	private void release(String key) {
+		int count = count(key) - 1;
+		if (count <= 0)
+			open.remove(key);
+		else
+			open.put(key, count);
+		notifyAll();
+	}
+}
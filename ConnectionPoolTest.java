@@ -0,0 +1,264 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// These tests run against a small stand-in server on localhost that answers every GET with a short keep-alive
+// response and counts how many connections it has accepted.
+
+
+public class ConnectionPoolTest {
+
+	private ServerSocket server;
+	private AtomicInteger accepted = new AtomicInteger();
+	private ConnectionPool pool;
+
+	// simulates a server that drops idle keep-alive connections without saying so
+	private volatile boolean closeAfterResponse = false;
+
+	// send bodies with Transfer-Encoding: chunked instead of Content-Length
+	private volatile boolean chunked = false;
+
+	// take requests but never answer them (holding on to the connection until the test is over)
+	private volatile boolean silent = false;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	@Before
+	public void startServer() throws IOException {
+		server = new ServerSocket(0);
+		pool = new ConnectionPool();
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						final Socket socket = server.accept();
+						accepted.incrementAndGet();
+						new Thread(new Runnable() {
+							@Override
+							public void run() {
+								serve(socket);
+							}
+						}).start();
+					}
+				} catch (IOException e) {
+					// server socket closed
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		stopped.countDown();
+		pool.close();
+		server.close();
+	}
+
+	// Answer each request with its own path, until the client closes the connection.
+	private void serve(Socket socket) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+			OutputStream out = socket.getOutputStream();
+			String requestLine;
+			while ((requestLine = in.readLine()) != null) {
+				String line;
+				while ((line = in.readLine()) != null && line.length() > 0) {
+					// skip request headers
+				}
+				if (silent) {
+					try {
+						stopped.await();
+					} catch (InterruptedException e) {
+						// give up on it
+					}
+					break;
+				}
+				String body = requestLine.split(" ")[1] + "\n";
+				if (chunked) {
+					int half = body.length() / 2;
+					out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nTransfer-Encoding: chunked\r\n\r\n"
+							+ Integer.toHexString(half) + "\r\n" + body.substring(0, half) + "\r\n"
+							+ Integer.toHexString(body.length() - half) + ";ext=1\r\n" + body.substring(half) + "\r\n"
+							+ "0\r\nX-Trailer: yes\r\n\r\n").getBytes("ISO-8859-1"));
+				} else {
+					out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: " + body.length()
+							+ "\r\n\r\n" + body).getBytes("ISO-8859-1"));
+				}
+				out.flush();
+				if (closeAfterResponse)
+					break;
+			}
+			socket.close();
+		} catch (IOException e) {
+			// client went away
+		}
+	}
+
+	private MyURL url(String path) {
+		return new MyURL("http://localhost:" + server.getLocalPort() + path);
+	}
+
+	@Test
+	public void sequentialRequestsReuseOneConnection() throws IOException {
+		for (int i = 0; i < 20; i++) {
+			WebTransactionClient client = new WebTransactionClient(url("/image" + i + ".png"), pool);
+			Assert.assertEquals("Response differs", 200, client.responseCode());
+			Assert.assertEquals("Body differs", "/image" + i + ".png\n", client.getText());
+		}
+		Assert.assertEquals("Connections accepted", 1, accepted.get());
+		Assert.assertEquals("Idle connections", 1, pool.idleCount());
+	}
+
+	@Test(timeout = 5000)
+	public void chunkedResponsesEndAtTheLastChunk() throws IOException {
+		chunked = true;
+		for (int i = 0; i < 5; i++) {
+			WebTransactionClient client = new WebTransactionClient(url("/chunk" + i), pool);
+			Assert.assertEquals("Body differs", "/chunk" + i + "\n", client.getText());
+		}
+		Assert.assertEquals("Connections accepted", 1, accepted.get());
+	}
+
+	@Test
+	public void unpooledRequestsOpenNewConnections() throws IOException {
+		for (int i = 0; i < 3; i++)
+			Assert.assertEquals("Body differs", "/page\n", new WebTransactionClient(url("/page")).getText());
+		Assert.assertEquals("Connections accepted", 3, accepted.get());
+	}
+
+	@Test
+	public void unreadResponseIsNotReused() throws IOException {
+		new WebTransactionClient(url("/first"), pool).close();
+		Assert.assertEquals("Body differs", "/second\n", new WebTransactionClient(url("/second"), pool).getText());
+		Assert.assertEquals("Connections accepted", 2, accepted.get());
+	}
+
+	@Test
+	public void expiredConnectionsAreClosed() throws Exception {
+		pool = new ConnectionPool(50, ConnectionPool.DEFAULT_MAX_PER_HOST);
+		new WebTransactionClient(url("/first"), pool).getText();
+		Thread.sleep(100);
+		new WebTransactionClient(url("/second"), pool).getText();
+		Assert.assertEquals("Connections accepted", 2, accepted.get());
+	}
+
+	@Test
+	public void connectionClosedByServerIsReplaced() throws IOException {
+		closeAfterResponse = true;
+		Assert.assertEquals("Body differs", "/first\n", new WebTransactionClient(url("/first"), pool).getText());
+		Assert.assertEquals("Body differs", "/second\n", new WebTransactionClient(url("/second"), pool).getText());
+		Assert.assertEquals("Connections accepted", 2, accepted.get());
+	}
+
+	@Test
+	public void channelTransportReusesOneConnection() throws IOException {
+		pool = new ConnectionPool(ConnectionPool.DEFAULT_IDLE_TIMEOUT, ConnectionPool.DEFAULT_MAX_PER_HOST,
+				ConnectionPool.Transport.CHANNEL);
+		for (int i = 0; i < 10; i++) {
+			chunked = i % 2 == 0;
+			WebTransactionClient client = new WebTransactionClient(url("/image" + i + ".png"), pool);
+			Assert.assertEquals("Body differs", "/image" + i + ".png\n", client.getText());
+		}
+		Assert.assertEquals("Connections accepted", 1, accepted.get());
+	}
+
+	// An abort comes from another thread, which may still be reading into the connection's buffer, so the buffer
+	// only goes back to be reused once that thread discards the connection.
+	@Test
+	public void abortingKeepsTheBufferUntilTheConnectionIsDiscarded() throws IOException {
+		pool = new ConnectionPool(ConnectionPool.DEFAULT_IDLE_TIMEOUT, ConnectionPool.DEFAULT_MAX_PER_HOST,
+				ConnectionPool.Transport.CHANNEL);
+		ConnectionPool.Connection aborted = pool.checkOut(url("/first"));
+		ByteBuffer buffer = aborted.input().buffer();
+		aborted.abort();
+		ConnectionPool.Connection other = pool.checkOut(url("/second"));
+		Assert.assertNotSame("Buffer reused while still in use", buffer, other.input().buffer());
+
+		// the reading thread finds the socket closed
+		try {
+			aborted.input().read();
+			Assert.fail("Read from an aborted connection");
+		} catch (IOException e) {
+			// expected
+		}
+		pool.discard(aborted);
+		ConnectionPool.Connection next = pool.checkOut(url("/third"));
+		Assert.assertSame("Buffer not given back", buffer, next.input().buffer());
+		pool.discard(other);
+		pool.discard(next);
+	}
+
+	@Test(timeout = 5000)
+	public void aServerThatNeverAnswersTimesOut() throws IOException {
+		silent = true;
+		for (ConnectionPool.Transport transport : ConnectionPool.Transport.values()) {
+			pool.close();
+			pool = new ConnectionPool(ConnectionPool.DEFAULT_IDLE_TIMEOUT, ConnectionPool.DEFAULT_MAX_PER_HOST,
+					transport);
+			pool.setReadTimeout(200);
+			try {
+				new WebTransactionClient(url("/never"), pool);
+				Assert.fail("Response from a silent server over " + transport);
+			} catch (SocketTimeoutException e) {
+				// expected
+			}
+		}
+	}
+
+	// An abort has to wake a channel read that is waiting (with a timeout) for the server, not leave it to time out.
+	@Test(timeout = 5000)
+	public void abortingWakesAWaitingRead() throws Exception {
+		silent = true;
+		pool = new ConnectionPool(ConnectionPool.DEFAULT_IDLE_TIMEOUT, ConnectionPool.DEFAULT_MAX_PER_HOST,
+				ConnectionPool.Transport.CHANNEL);
+		pool.setReadTimeout(60000);
+		final ConnectionPool.Connection connection = pool.checkOut(url("/never"));
+		connection.output().write(WebTransactionClient.request(url("/never"), true,
+				Collections.<String, String>emptyMap()).getBytes("ISO-8859-1"));
+		final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					connection.input().read();
+				} catch (IOException e) {
+					failure.set(e);
+				}
+			}
+		});
+		reader.start();
+		Thread.sleep(200);
+		connection.abort();
+		reader.join(2000);
+		Assert.assertFalse("Read still waiting", reader.isAlive());
+		Assert.assertNotNull("Read didn't fail", failure.get());
+		Assert.assertFalse(failure.get() instanceof SocketTimeoutException);
+		pool.discard(connection);
+	}
+
+	@Test
+	public void channelClosedByServerIsReplaced() throws IOException {
+		pool = new ConnectionPool(ConnectionPool.DEFAULT_IDLE_TIMEOUT, ConnectionPool.DEFAULT_MAX_PER_HOST,
+				ConnectionPool.Transport.CHANNEL);
+		closeAfterResponse = true;
+		Assert.assertEquals("Body differs", "/first\n", new WebTransactionClient(url("/first"), pool).getText());
+		Assert.assertEquals("Body differs", "/second\n", new WebTransactionClient(url("/second"), pool).getText());
+		Assert.assertEquals("Connections accepted", 2, accepted.get());
+	}
+}
@@ -0,0 +1,394 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Checks the links of a site:  starting from one page, it follows every {@code [[link]]} and {@code <<image>>} (as
+ * {@link Document} finds them, so exactly the ones the browser would show) breadth-first, fetching each URL once.
+ * Pages on the starting page's server are read for more links;  other URLs (and images) are only fetched, to see
+ * that they are there.  The URLs of each level are fetched in parallel, but never more than {@code maxPerHost} at
+ * a time from one server, so the crawl doesn't hammer anyone.  Run it with
+ * <pre>
+ *   java Crawler [-threads n] [-perHost n] [-max n] [-sameHost] url
+ * </pre>
+ * It reports the pages per second, the fetch latencies and the broken links (with the pages they are on).
+ */
+public class Crawler {
+
+	public static final int DEFAULT_THREADS = 16;
+	public static final int DEFAULT_MAX_PER_HOST = 2;
+	public static final int DEFAULT_MAX_URLS = 10000;
+
+	/**
+	 * A link that couldn't be followed.
+	 */
+	public static class Broken {
+		private final String url;
+		private final MyURL page;
+		private final String reason;
+
+		Broken(String url, MyURL page, String reason) {
+			this.url = url;
+			this.page = page;
+			this.reason = reason;
+		}
+
+		/**
+		 * @return the link (resolved, unless it was malformed).
+		 */
+		public String url() {
+			return url;
+		}
+
+		/**
+		 * @return the page the link was found on (or {@code null} for the starting page itself).
+		 */
+		public MyURL page() {
+			return page;
+		}
+
+		/**
+		 * @return what went wrong (e.g., "HTTP/1.1 404 Not Found").
+		 */
+		public String reason() {
+			return reason;
+		}
+
+		@Override
+		public String toString() {
+			return url + " (" + reason + ")" + (page == null ? "" : " on " + page);
+		}
+	}
+
+	/**
+	 * What a crawl found.
+	 */
+	public static class Report {
+		private final int pages;
+		private final int checked;
+		private final List<Broken> broken;
+		private final long[] latencies;  // of each fetch, in nanoseconds, sorted
+		private final long elapsed;      // nanoseconds
+
+		Report(int pages, int checked, List<Broken> broken, long[] latencies, long elapsed) {
+			this.pages = pages;
+			this.checked = checked;
+			this.broken = Collections.unmodifiableList(broken);
+			this.latencies = latencies;
+			this.elapsed = elapsed;
+		}
+
+		/**
+		 * @return the number of pages that were read for links.
+		 */
+		public int pages() {
+			return pages;
+		}
+
+		/**
+		 * @return the number of URLs fetched (pages, images and links to other servers).
+		 */
+		public int checked() {
+			return checked;
+		}
+
+		public List<Broken> broken() {
+			return broken;
+		}
+
+		public double seconds() {
+			return elapsed / 1e9;
+		}
+
+		public double pagesPerSecond() {
+			return elapsed == 0 ? 0 : pages / seconds();
+		}
+
+		/**
+		 * @param percentile e.g., 50 for the median, or 99
+		 * @return the time (in milliseconds) from sending a request to receiving its response head that that
+		 * percentage of the fetches took at most.
+		 */
+		public double latency(double percentile) {
+			if (latencies.length == 0)
+				return 0;
+			int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1e6;
+		}
+
+		public void print(PrintStream out) {
+			out.printf(Locale.ROOT, "Crawled %d pages (%d URLs) in %.2f s:  %.1f pages/s%n", pages, checked,
+					seconds(), pagesPerSecond());
+			out.printf(Locale.ROOT, "Latency:  p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms%n", latency(50),
+					latency(90), latency(99), latency(100));
+			out.println("Broken links:  " + broken.size());
+			for (Broken link : broken)
+				out.println("  " + link);
+		}
+	}
+
+	private final ConnectionPool pool;
+	private final int threads;
+	private final int maxPerHost;
+	private volatile int maxUrls = DEFAULT_MAX_URLS;
+	private volatile boolean checkOtherHosts = true;
+
+	/**
+	 * @param pool       where connections come from
+	 * @param threads    the most URLs to fetch at the same time
+	 * @param maxPerHost the most URLs to fetch from one server at the same time
+	 */
+	public Crawler(ConnectionPool pool, int threads, int maxPerHost) {
+		this.pool = pool;
+		this.threads = threads;
+		this.maxPerHost = maxPerHost;
+	}
+
+	/**
+	 * Stop after fetching this many URLs (so a site that generates endless links can't keep the crawl going).
+	 */
+	public void setMaxUrls(int maxUrls) {
+		this.maxUrls = maxUrls;
+	}
+
+	/**
+	 * Whether links to other servers are fetched to check them (they are never read for more links).
+	 */
+	public void setCheckOtherHosts(boolean checkOtherHosts) {
+		this.checkOtherHosts = checkOtherHosts;
+	}
+
+	/**
+	 * Crawl the site {@code seed} is on.
+	 *
+	 * @param seed the page to start from
+	 * @return what was found.
+	 */
+	public Report crawl(MyURL seed) throws InterruptedException {
+		return new Crawl(seed).run();
+	}
+
+	// A URL to fetch, and how it was found.
+	private static class Target {
+		final MyURL url;
+		final MyURL page;    // the page it was linked from (null for the seed)
+		final boolean link;  // true for a [[link]] (which may be a page to read), false for an <<image>>
+
+		Target(MyURL url, MyURL page, boolean link) {
+			this.url = url;
+			this.page = page;
+			this.link = link;
+		}
+	}
+
+	/**
+	 * The state of one crawl.
+	 */
+	private class Crawl {
+		private final MyURL seed;
+		private final Set<MyURL> visited = ConcurrentHashMap.<MyURL>newKeySet();
+		private final ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+		private final List<Broken> broken = new ArrayList<Broken>();
+		private long[] latencies = new long[64];
+		private int fetched = 0;
+		private int pages = 0;
+
+		Crawl(MyURL seed) {
+			this.seed = seed;
+		}
+
+		Report run() throws InterruptedException {
+			long start = System.nanoTime();
+			ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "crawler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			try {
+				visited.add(seed);
+				List<Target> level = Collections.singletonList(new Target(seed, null, true));
+				int submitted = 0;
+
+				// one level at a time, so that the URLs are fetched in order of their distance from the seed
+				while (!level.isEmpty() && submitted < maxUrls) {
+					List<Future<List<Target>>> results = new ArrayList<Future<List<Target>>>(level.size());
+					for (final Target target : level) {
+						if (submitted == maxUrls)
+							break;
+						submitted++;
+						results.add(workers.submit(new Callable<List<Target>>() {
+							@Override
+							public List<Target> call() throws InterruptedException {
+								return visit(target);
+							}
+						}));
+					}
+					List<Target> next = new ArrayList<Target>();
+					for (Future<List<Target>> result : results) {
+						try {
+							next.addAll(result.get());
+						} catch (ExecutionException e) {
+							throw new IllegalStateException(e.getCause());
+						}
+					}
+					level = next;
+				}
+			} finally {
+				workers.shutdownNow();
+			}
+			synchronized (this) {
+				long[] sorted = Arrays.copyOf(latencies, fetched);
+				Arrays.sort(sorted);
+				return new Report(pages, fetched, new ArrayList<Broken>(broken), sorted, System.nanoTime() - start);
+			}
+		}
+
+		private boolean onSite(MyURL url) {
+			return url.domainName().equals(seed.domainName()) && url.port() == seed.port();
+		}
+
+		// Fetch one URL.  Returns the URLs it links to that haven't been seen before.
+		private List<Target> visit(Target target) throws InterruptedException {
+			MyURL url = target.url;
+			Semaphore host = hosts.get(url.domainName() + ":" + url.port());
+			if (host == null) {
+				Semaphore created = new Semaphore(maxPerHost);
+				host = hosts.putIfAbsent(url.domainName() + ":" + url.port(), created);
+				if (host == null)
+					host = created;
+			}
+
+			List<Target> found = new ArrayList<Target>();
+			host.acquire();
+			try {
+				long start = System.nanoTime();
+				WebTransactionClient client = new WebTransactionClient(url, pool);
+				fetched(System.nanoTime() - start);
+				int code = client.responseCode();
+				String type = client.getHeader("content-type");
+
+				if (code >= 200 && code < 300 && target.link && onSite(url)
+						&& (type == null || !type.contains("image"))) {
+					Document document = Document.parse(SimpleBrowser.readDocument(client, url));
+					pageRead();
+					for (String link : document.links())
+						follow(link, url, true, found);
+					for (String image : document.images())
+						follow(image, url, false, found);
+				} else {
+
+					// the body isn't needed (skipping a short one keeps the connection for the next request)
+					client.getBody().close();
+					if (code >= 300 && code < 400 && client.getHeader("location") != null) {
+
+						// a redirect is a link from the URL that was asked for
+						follow(client.getHeader("location"), url, target.link, found);
+					} else if (code < 200 || code >= 300) {
+						broken(url.toString(), target.page, client.response());
+					}
+				}
+			} catch (IOException e) {
+				broken(url.toString(), target.page, e.toString());
+			} catch (RuntimeException e) {
+				broken(url.toString(), target.page, e.toString());
+			} finally {
+				host.release();
+			}
+			return found;
+		}
+
+		// Queue up a link, if it hasn't been seen before.
+		private void follow(String link, MyURL page, boolean isLink, List<Target> found) {
+			MyURL url;
+			try {
+				url = new MyURL(link, page);
+			} catch (RuntimeException e) {
+				broken(link, page, "Malformed URL");
+				return;
+			}
+			if (!checkOtherHosts && !onSite(url))
+				return;
+			if (visited.add(url))
+				found.add(new Target(url, page, isLink));
+		}
+
+		private synchronized void fetched(long latency) {
+			if (fetched == latencies.length)
+				latencies = Arrays.copyOf(latencies, fetched * 2);
+			latencies[fetched++] = latency;
+		}
+
+		private synchronized void pageRead() {
+			pages++;
+		}
+
+		private synchronized void broken(String url, MyURL page, String reason) {
+			broken.add(new Broken(url, page, reason));
+		}
+	}
+
+	private static void usage() {
+		System.err.println("usage:  java Crawler [-threads n] [-perHost n] [-max n] [-sameHost] url");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int threads = DEFAULT_THREADS;
+		int maxPerHost = DEFAULT_MAX_PER_HOST;
+		int maxUrls = DEFAULT_MAX_URLS;
+		boolean checkOtherHosts = true;
+		MyURL seed = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-threads") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-perHost") && i + 1 < args.length)
+					maxPerHost = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-max") && i + 1 < args.length)
+					maxUrls = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-sameHost"))
+					checkOtherHosts = false;
+				else if (args[i].startsWith("-") || seed != null)
+					usage();
+				else
+					seed = new MyURL(args[i]);
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			usage();
+		}
+		if (seed == null || threads <= 0 || maxPerHost <= 0)
+			usage();
+
+		ConnectionPool pool = new ConnectionPool(ConnectionPool.DEFAULT_IDLE_TIMEOUT, maxPerHost,
+				ConnectionPool.Transport.SOCKET);
+		try {
+			Crawler crawler = new Crawler(pool, threads, maxPerHost);
+			crawler.setMaxUrls(maxUrls);
+			crawler.setCheckOtherHosts(checkOtherHosts);
+			Report report = crawler.crawl(seed);
+			report.print(System.out);
+			if (!report.broken().isEmpty())
+				System.exit(2);
+		} finally {
+			pool.close();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+// These tests serve the sampleInput directory, so they must be run from the top of the project.
+
+
+public class CrawlerTest {
+
+	private LocalServer server;
+	private ConnectionPool pool;
+	private Crawler crawler;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new LocalServer(new File("sampleInput"));
+		pool = new ConnectionPool();
+		crawler = new Crawler(pool, 4, 2);
+
+		// the sample pages link to real sites, which the tests shouldn't depend on
+		crawler.setCheckOtherHosts(false);
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		pool.close();
+		server.close();
+	}
+
+	@Test(timeout = 10000)
+	public void visitsEveryPageAndImageOnce() throws InterruptedException {
+		Crawler.Report report = crawler.crawl(server.url("basic.txt"));
+
+		// basic, boldAndItalic, oops, subdirImages, SubDirectory/index and index2, Images/localImages and
+		// remoteImages, plus noSuchPage.txt and the three images
+		Assert.assertEquals("Pages read", 8, report.pages());
+		Assert.assertEquals("URLs fetched", 12, report.checked());
+		Assert.assertEquals("Requests", 12, server.requests());
+	}
+
+	@Test(timeout = 10000)
+	public void reportsBrokenLinksWithTheirPages() throws InterruptedException {
+		Crawler.Report report = crawler.crawl(server.url("basic.txt"));
+		Assert.assertEquals("Broken links", 1, report.broken().size());
+		Crawler.Broken broken = report.broken().get(0);
+		Assert.assertEquals(server.url("noSuchPage.txt").toString(), broken.url());
+		Assert.assertEquals(server.url("oops.txt"), broken.page());
+		Assert.assertTrue(broken.reason(), broken.reason().contains("404"));
+	}
+
+	@Test(timeout = 10000)
+	public void reportsLatencyPercentiles() throws InterruptedException {
+		server.setLatency(20);
+		Crawler.Report report = crawler.crawl(server.url("SubDirectory/index.txt"));
+		Assert.assertTrue("Too fast", report.latency(50) >= 20);
+		Assert.assertTrue("Out of order", report.latency(50) <= report.latency(90));
+		Assert.assertTrue("Out of order", report.latency(99) <= report.latency(100));
+		Assert.assertTrue("No rate", report.pagesPerSecond() > 0);
+	}
+
+	@Test(timeout = 10000)
+	public void limitsRequestsPerHost() throws InterruptedException {
+		server.setLatency(50);
+		new Crawler(pool, 8, 1).crawl(server.url("subdirImages.txt"));
+
+		// one request at a time, so one connection does them all
+		Assert.assertEquals("Connections accepted", 1, server.connections());
+	}
+
+	@Test(timeout = 10000)
+	public void stopsAtTheMostURLs() throws InterruptedException {
+		crawler.setMaxUrls(3);
+		Assert.assertEquals("URLs fetched", 3, crawler.crawl(server.url("basic.txt")).checked());
+	}
+}
@@ -1,11 +1,10 @@
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.io.File;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Scanner;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -23,21 +22,59 @@ import javax.swing.*;
 public class Display extends JPanel {
 
 	private static final int MARGIN = 10; // the margin around the edge of the window.
-	private List<String> content;  // the text that is to be displayed.
-
-
-	// This Map is what makes links:  Each Rectangle is a link --- an area on the screen that can be clicked.
-	// The rectangle is the key.  The value, in this case, is the color that should be used when the link is clicked.
-	// When building a "real" browser, the links are also areas on the screen, but the corresponding value is the URL
-	// that should be loaded when the link is clicked.
-	private Map<Rectangle, String> links = new HashMap<Rectangle, String>();
-	private SimpleBrowser browser;
+	private static final Color PLACEHOLDER_FILL = new Color(0xeeeeee);
+	private static final Color PLACEHOLDER_EDGE = Color.LIGHT_GRAY;
+	private static final Layout.ImageSource NO_IMAGES = new Layout.ImageSource() {
+		@Override
+		public Image getImage(String url) {
+			return null;
+		}
+	};
+	private Document content;  // the text that is to be displayed.
+	private Layout.ImageSource images;  // where the page's images come from (null if there aren't any yet)
+
+	// The positions of the words and links, worked out once per document and width rather than on every paint.
+	// Each link word is an area on the screen that can be clicked;  the layout finds the one under the mouse.
+	private Layout layout;
+	private FontCache fonts;
+	private boolean relayoutPending = false;
+
+	public Display() {
+		// the words wrap differently when the width changes
+		addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+
+				// (an offscreen Display, e.g. PageRenderer's, belongs to the thread drawing it, so it is left alone;
+				// it is laid out again when it is painted)
+				if (isShowing() && content != null
+						&& (layout == null || !layout.isFor(content, getWidth(), getFont())))
+					relayout();
+			}
+		});
+	}
 
 	/**
 	 * set the browser variable for retreived image cache
 	 */
-	public void setBrowser(SimpleBrowser browser) {
-		this.browser = browser;
+	public void setBrowser(final SimpleBrowser browser) {
+		setImageSource(new Layout.ImageSource() {
+			@Override
+			public Image getImage(String url) {
+				return browser.getCachedImage(url);
+			}
+		});
+	}
+
+	/**
+	 * Set where the images named in the document come from (e.g., an image cache, when drawing offscreen without
+	 * a browser).
+	 *
+	 * @param images returns each image, or {@code null} if it isn't available
+	 */
+	public void setImageSource(Layout.ImageSource images) {
+		this.images = images;
+		layout = null;
 	}
 
 	/**
@@ -46,21 +83,80 @@ public class Display extends JPanel {
 	 * @param text_in the text that is to be dis played
 	 */
 	public void setText(List<String> text_in) {
-		content = text_in;
+		setDocument(Document.parse(text_in));
 	}
 
 	/**
-	 * Actually "draws" the text on the window.
+	 * Set the (already parsed) document that is to be displayed.
+	 *
+	 * @param document the document that is to be displayed
+	 */
+	public void setDocument(Document document) {
+		content = document;
+		relayout();
+	}
+
+	/**
+	 * @return the document being displayed, or {@code null} if there isn't one yet.
+	 */
+	public Document getDocument() {
+		return content;
+	}
+
+	/**
+	 * Lay the document out again (e.g., because an image has arrived and changed size).  Several calls in a row
+	 * are combined into one layout.  Must be called on the Event Dispatch Thread.
+	 */
+	public void invalidateLayout() {
+		if (relayoutPending)
+			return;
+		relayoutPending = true;
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				relayoutPending = false;
+				layout = null;
+				relayout();
+			}
+		});
+	}
+
+	// Compute the layout now (rather than in the middle of painting) and resize the panel to fit it.
+	private void relayout() {
+		if (content == null) {
+			layout = null;
+		} else {
+			ensureLayout();
+		}
+		repaint();
+	}
+
+	// Lay out the document if the document, width or font has changed since the last layout.
+	private Layout ensureLayout() {
+		if (layout != null && layout.isFor(content, getWidth(), getFont()))
+			return layout;
+		if (fonts == null || !fonts.base().equals(getFont()))
+			fonts = new FontCache(getFont(), this);
+		layout = Layout.compute(content, getWidth(), MARGIN, fonts, images == null ? NO_IMAGES : images);
+
+		// make this JPanel as tall as the document (it is stretched to fill the window if that is bigger).
+		// Calling re-validate causes the scroll bars to adjust, if necessary.
+		Dimension size = new Dimension(MARGIN, layout.height());
+		if (!size.equals(getPreferredSize())) {
+			setPreferredSize(size);
+			revalidate();
+		}
+		return layout;
+	}
+
+	/**
+	 * Actually "draws" the text on the window.  Only the rows that intersect the clip rectangle are drawn.
 	 *
 	 * @param g
 	 */
 	@Override
 	public void paintComponent(Graphics g) {
 
-        // reset links if the map is not empty
-        if (links.size() != 0)
-            links.clear();
-
 		// prevents display from messing up while scrolling
 		super.paintComponent(g);
 
@@ -68,158 +164,63 @@ public class Display extends JPanel {
 		if (content == null) {
 			return;
 		}
-
-		// The FontMetrics object can compute the size of text in the window.
-		// You must get a new FontMetrics object every time you change or modify the font (e.g., use bold or italics).
-		FontMetrics metrics = g.getFontMetrics();
-		int line_height = metrics.getHeight();
-		int panel_width = getWidth() - MARGIN * 2;
-		int x = MARGIN;
-		int y = line_height;
-
-		// save the original font in case we change it.
-		Font originalFont = g.getFont();
-
-		// booleans for italics, bold, and links set to false
-		boolean bold, italic, link;
-		bold = italic = link = false;
-
-		// Iterate over each line.
-		for (String line : content) {
-			Scanner words = new Scanner(line);
-			String url = null;
-
-			// iterate over each word
-			while (words.hasNext()) {
-				String nextWord = words.next().trim();
-
-				// check for an image
-				if (hasMarkup(nextWord, "<<", true)
-						&& hasMarkup(nextWord, ">>", false)) {
-					nextWord = nextWord.substring(2, nextWord.length() - 2);
-					Image image = browser.getCachedImage(nextWord);
-                    g.drawImage(image, x, y - line_height, image.getWidth(null), image.getHeight(null), null);
-                    y += image.getHeight(null);
+		Layout layout = ensureLayout();
+
+		Rectangle clip = g.getClipBounds();
+		int top = clip == null ? 0 : clip.y;
+		int bottom = clip == null ? getHeight() : clip.y + clip.height;
+
+		List<Layout.Row> rows = layout.rows();
+		for (int i = layout.firstRowBelow(top); i < rows.size() && rows.get(i).top() < bottom; i++) {
+			for (Layout.Box box : rows.get(i).boxes()) {
+				Document.Word word = box.word();
+
+				// check for an image (which may have been evicted from the cache since the layout, or may not have
+				// arrived yet).  One that is still being decoded is drawn as far as it has got.
+				if (word.isImage()) {
+					Image image = images == null ? null : images.getImage(word.image());
+					int imageWidth = image == null ? -1 : image.getWidth(this);
+					if (imageWidth < 0) {
+						g.setColor(PLACEHOLDER_FILL);
+						g.fillRect(box.x(), box.y(), box.width() - 1, box.height() - 1);
+						g.setColor(PLACEHOLDER_EDGE);
+						g.drawRect(box.x(), box.y(), box.width() - 1, box.height() - 1);
+						continue;
+					}
+
+					// smooth out an image that is shrunk to fit the page
+					if (imageWidth != box.width() && g instanceof Graphics2D)
+						((Graphics2D) g).setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+								RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+					g.drawImage(image, box.x(), box.y(), box.width(), box.height(), this);
 					continue;
 				}
 
-				// original style for word
-				int style = Font.PLAIN;
-
-				// start checking for adding style markup
-				// check for start of bold markup 
-				if (hasMarkup(nextWord, "*", true)) {
-					bold = true;
-
-					// remove character at beginning of string
-					nextWord = nextWord.substring(1);
-				}
-
-				// check for start of italic markup
-				if (hasMarkup(nextWord, "_", true)) {
-					italic = true;
-
-					// remove markup from beginning of string
-					nextWord = nextWord.substring(1);
-				}
-
-				if (hasMarkup(nextWord, "[[", true)) {
-					link = true;
-					
-					// remove starting brackets
-					nextWord = nextWord.substring(2);
-					
-					// set url 
-					url = nextWord;
-							
-					// check for closing markup bracket in url
-					if (url.contains("]]"))
-						url = url.substring(0, url.length() - 2);
-					
-					// skip to next word if more than one word in link
-					if (line.split(" ").length != 1 && words.hasNext())
-						nextWord = words.next();
-				}
-
-				// remove plain style and add bold
-				if (bold)
-					style = Font.BOLD;
-
-				// add italic font to style
-				if (italic)
-					style += Font.ITALIC;
-				
-				// update color
-				g.setColor(link ? Color.BLUE : Color.BLACK);
-				
-				// check for link
-				if (link) {
-					
-					// create new rectangle
-					Rectangle rect = new Rectangle(x, y - line_height,
-							metrics.stringWidth(nextWord), line_height);
-					
-					// add rectangle to screen
-					g.clearRect(rect.x, rect.y, rect.width, rect.height);
-					
-					// add rectangle to hash map
-					links.put(rect, url);
-				}
-
-				// start checking for end of markup
-				// check for end of bold line
-				if (hasMarkup(nextWord, "*", false)) {
-					bold = false;
-
-					// remove char at end of string
-					nextWord = nextWord.substring(0, nextWord.length() - 1);
-				}
-
-				// check for end of italic line
-				if (hasMarkup(nextWord, "_", false)) {
-					italic = false;
-
-					// remove char at end of string
-					nextWord = nextWord.substring(0, nextWord.length() - 1);
-				}
-
-				if (hasMarkup(nextWord, "]]", false)) {
-					link = false;		
-					
-					// remove brackets at end of string
-					nextWord = nextWord.substring(0, nextWord.length() - 2);
-				}
-
-				String wordAndSpace = nextWord + " ";
-                g.setFont(originalFont.deriveFont(style));
-                metrics = g.getFontMetrics();
-				int word_width = metrics.stringWidth(wordAndSpace);
+				g.setFont(fonts.font(word.style()));
+				g.setColor(word.link() != null ? Color.BLUE : Color.BLACK);
 
-				// If there isn't room for this word, go to the next line
-				if (x + word_width > panel_width) {
-					x = MARGIN;
-					y += line_height;
-				}
-								
 				// draw the word
+				g.drawString(word.text(), box.x(), box.y());
+			}
+		}
+		g.setFont(fonts.base());
+	}
 
-				g.drawString(wordAndSpace, x, y);
-				
-				x += word_width;
-
-			} // end of the line
-
-			// move to the next line
-			x = MARGIN;
-			y += line_height;
-		} // end of all ines
-
-		// make this JPanel bigger if necessary.
-		// Calling re-validate causes the scroll bars to adjust, if necessary.
-		if (y > getHeight()) {
-			setPreferredSize(new Dimension(x, y + line_height + 2 * MARGIN));
-			revalidate();
+	/**
+	 * Called as an image that is drawn (or measured) here loads in the background.  Besides repainting as its
+	 * pixels arrive, the page is laid out again once the image knows its size, to make room for it.
+	 */
+	@Override
+	public boolean imageUpdate(Image image, int flags, int x, int y, int width, int height) {
+		if ((flags & (WIDTH | HEIGHT)) != 0) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					invalidateLayout();
+				}
+			});
 		}
+		return super.imageUpdate(image, flags, x, y, width, height);
 	}
 
 	/**
@@ -233,28 +234,9 @@ public class Display extends JPanel {
 	 */
 	// 
 	public String getUrl(Point point) {
-		for (Rectangle rect : links.keySet()) {
-			if (rect.contains(point))
-				return links.get(rect);
-		}
-		return null;
-	}
-
-	/**
-	 * Determine if string starts or ends with specific character
-	 * 
-	 * @param word to look for
-	 * @param start check beginning or false to check end
-	 * 
-	 * @return true if character is found and starts or ends with value
-	 * 
-	 */
-	private boolean hasMarkup(String word, String markup, boolean start) {
-		// TODO: edit this method to return starts with and ends with one string
-		if (start)
-			return word.startsWith(markup);
-		else
-			return word.endsWith(markup);
+		if (content == null)
+			return null;
+		return ensureLayout().linkAt(point);
 	}
 
-}
\ No newline at end of file
+}
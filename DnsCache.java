@@ -0,0 +1,165 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the addresses of recently used hosts, so that a page and its images don't each pay for a name lookup.
+ * An answer is kept for {@code positiveTtl} milliseconds;  a host that couldn't be found is remembered for the
+ * (usually shorter) {@code negativeTtl}, so a page full of links to a dead host fails fast without the failure
+ * sticking around for long.
+ * <p/>
+ * The lookups themselves are done by a {@link Resolver}, which tests can replace with a table of their own.
+ */
+public class DnsCache {
+
+	public static final long DEFAULT_POSITIVE_TTL = 60000;  // milliseconds
+	public static final long DEFAULT_NEGATIVE_TTL = 10000;  // milliseconds
+	public static final int DEFAULT_MAX_HOSTS = 1024;
+
+	/**
+	 * Looks up the addresses of a host.
+	 */
+	public static interface Resolver {
+
+		/**
+		 * @param host a host name (or an address literal)
+		 * @return the host's addresses, in the order they should be tried.
+		 * @throws UnknownHostException if the host has no addresses.
+		 */
+		InetAddress[] resolve(String host) throws UnknownHostException;
+	}
+
+	/**
+	 * Asks the operating system (through {@code InetAddress.getAllByName}).
+	 */
+	public static final Resolver SYSTEM = new Resolver() {
+		@Override
+		public InetAddress[] resolve(String host) throws UnknownHostException {
+			return InetAddress.getAllByName(host);
+		}
+	};
+
+	// the cache that connections use unless they are given another one
+	private static final DnsCache SHARED = new DnsCache();
+
+	private static class Entry {
+		final List<InetAddress> addresses;  // null if the host wasn't found
+		final String failure;               // why not
+		final long expires;
+
+		Entry(List<InetAddress> addresses, String failure, long expires) {
+			this.addresses = addresses;
+			this.failure = failure;
+			this.expires = expires;
+		}
+	}
+
+	private final long positiveTtl;
+	private final long negativeTtl;
+	private final Resolver resolver;
+	private final Map<String, Entry> entries;
+	private long hits = 0;
+	private long misses = 0;
+
+	public DnsCache() {
+		this(DEFAULT_POSITIVE_TTL, DEFAULT_NEGATIVE_TTL, SYSTEM);
+	}
+
+	/**
+	 * @param positiveTtl how long (in milliseconds) a host's addresses are remembered
+	 * @param negativeTtl how long (in milliseconds) it is remembered that a host couldn't be found
+	 * @param resolver    does the lookups
+	 */
+	public DnsCache(long positiveTtl, long negativeTtl, Resolver resolver) {
+		this(positiveTtl, negativeTtl, resolver, DEFAULT_MAX_HOSTS);
+	}
+
+	/**
+	 * @param positiveTtl how long (in milliseconds) a host's addresses are remembered
+	 * @param negativeTtl how long (in milliseconds) it is remembered that a host couldn't be found
+	 * @param resolver    does the lookups
+	 * @param maxHosts    the most hosts to remember (the least recently used are forgotten first)
+	 */
+	public DnsCache(long positiveTtl, long negativeTtl, Resolver resolver, final int maxHosts) {
+		this.positiveTtl = positiveTtl;
+		this.negativeTtl = negativeTtl;
+		this.resolver = resolver;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxHosts;
+			}
+		};
+	}
+
+	/**
+	 * @return the cache that {@link ConnectionPool}s use unless they are given one of their own.
+	 */
+	public static DnsCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Get the addresses of a host, looking them up only if they aren't remembered.
+	 *
+	 * @param host a host name (or an address literal)
+	 * @return the host's addresses, in the order they should be tried.
+	 * @throws UnknownHostException if the host has no addresses (now, or when it was last looked up).
+	 */
+	public List<InetAddress> lookup(String host) throws UnknownHostException {
+		String key = host.toLowerCase();
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && System.currentTimeMillis() < entry.expires) {
+				hits++;
+				if (entry.addresses == null)
+					throw new UnknownHostException(entry.failure);
+				return entry.addresses;
+			}
+			misses++;
+		}
+
+		// look it up outside the lock, so that one slow lookup doesn't hold up hosts that are already known
+		try {
+			List<InetAddress> addresses = Collections.unmodifiableList(Arrays.asList(resolver.resolve(host)));
+			if (addresses.isEmpty())
+				throw new UnknownHostException(host);
+			put(key, new Entry(addresses, null, System.currentTimeMillis() + positiveTtl));
+			return addresses;
+		} catch (UnknownHostException e) {
+			put(key, new Entry(null, e.getMessage(), System.currentTimeMillis() + negativeTtl));
+			throw e;
+		}
+	}
+
+	private synchronized void put(String key, Entry entry) {
+		entries.put(key, entry);
+	}
+
+	/**
+	 * Forget a host's addresses (e.g., because none of them answered), so that it is looked up again next time.
+	 *
+	 * @param host the host to forget
+	 */
+	public synchronized void invalidate(String host) {
+		entries.remove(host.toLowerCase());
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache (including remembered failures).
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups that had to ask the resolver.
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+}
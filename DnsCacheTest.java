@@ -0,0 +1,156 @@
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class DnsCacheTest {
+
+	// Answers from a table instead of the network, counting the lookups.
+	private static class Table implements DnsCache.Resolver {
+		final Map<String, InetAddress[]> hosts = new HashMap<String, InetAddress[]>();
+		int lookups = 0;
+
+		@Override
+		public synchronized InetAddress[] resolve(String host) throws UnknownHostException {
+			lookups++;
+			InetAddress[] addresses = hosts.get(host);
+			if (addresses == null)
+				throw new UnknownHostException(host);
+			return addresses;
+		}
+	}
+
+	private Table table;
+	private InetAddress first;
+	private InetAddress second;
+
+	@Before
+	public void setUp() throws UnknownHostException {
+		table = new Table();
+		first = InetAddress.getByAddress("example.test", new byte[]{127, 0, 0, 2});
+		second = InetAddress.getByAddress("example.test", new byte[]{127, 0, 0, 1});
+		table.hosts.put("example.test", new InetAddress[]{first, second});
+	}
+
+	@Test
+	public void remembersAddresses() throws UnknownHostException {
+		DnsCache dns = new DnsCache(60000, 1000, table);
+		Assert.assertEquals(Arrays.asList(first, second), dns.lookup("example.test"));
+		Assert.assertEquals(Arrays.asList(first, second), dns.lookup("Example.TEST"));
+		Assert.assertEquals("Lookups", 1, table.lookups);
+		Assert.assertEquals("Hits", 1, dns.hits());
+		Assert.assertEquals("Misses", 1, dns.misses());
+	}
+
+	@Test
+	public void forgetsAddressesAfterTheirTtl() throws UnknownHostException, InterruptedException {
+		DnsCache dns = new DnsCache(50, 10, table);
+		dns.lookup("example.test");
+		Thread.sleep(100);
+		dns.lookup("example.test");
+		Assert.assertEquals("Lookups", 2, table.lookups);
+	}
+
+	@Test
+	public void remembersFailuresForTheNegativeTtl() throws InterruptedException {
+		DnsCache dns = new DnsCache(60000, 50, table);
+		for (int i = 0; i < 3; i++) {
+			try {
+				dns.lookup("nowhere.test");
+				Assert.fail("Found a host that doesn't exist");
+			} catch (UnknownHostException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains("nowhere.test"));
+			}
+		}
+		Assert.assertEquals("Lookups", 1, table.lookups);
+		Assert.assertEquals("Hits", 2, dns.hits());
+
+		// once the failure is forgotten, a host that has appeared since is found
+		Thread.sleep(100);
+		table.hosts.put("nowhere.test", new InetAddress[]{second});
+		try {
+			Assert.assertEquals(Arrays.asList(second), dns.lookup("nowhere.test"));
+		} catch (UnknownHostException e) {
+			Assert.fail("Failure remembered too long");
+		}
+	}
+
+	@Test
+	public void canBeInvalidated() throws UnknownHostException {
+		DnsCache dns = new DnsCache(60000, 1000, table);
+		dns.lookup("example.test");
+		dns.invalidate("example.test");
+		dns.lookup("example.test");
+		Assert.assertEquals("Lookups", 2, table.lookups);
+	}
+
+	@Test
+	public void forgetsTheLeastRecentlyUsedHosts() throws UnknownHostException {
+		table.hosts.put("a.test", new InetAddress[]{second});
+		table.hosts.put("b.test", new InetAddress[]{second});
+		DnsCache dns = new DnsCache(60000, 1000, table, 2);
+		dns.lookup("example.test");
+		dns.lookup("a.test");
+		dns.lookup("example.test");
+		dns.lookup("b.test");  // pushes out a.test
+		dns.lookup("example.test");
+		Assert.assertEquals("Lookups", 3, table.lookups);
+		dns.lookup("a.test");
+		Assert.assertEquals("Lookups", 4, table.lookups);
+	}
+
+	// The local server listens on 127.0.0.1 only, so the first address (127.0.0.2) refuses the connection.
+	@Test
+	public void connectionsTryEachAddressInTurn() throws IOException {
+		LocalServer server = new LocalServer(new File("sampleInput"));
+		DnsCache dns = new DnsCache(60000, 1000, table);
+		ConnectionPool pool = new ConnectionPool(ConnectionPool.DEFAULT_IDLE_TIMEOUT,
+				ConnectionPool.DEFAULT_MAX_PER_HOST, ConnectionPool.Transport.SOCKET, dns);
+		try {
+			// a new connection for each request, so each one has to find an address
+			server.setKeepAlive(false);
+			MyURL url = new MyURL("http://example.test:" + server.port() + "/basic.txt");
+			for (int i = 0; i < 2; i++) {
+				WebTransactionClient client = new WebTransactionClient(url, pool);
+				Assert.assertEquals("Response differs", 200, client.responseCode());
+				client.getText();
+			}
+			Assert.assertEquals("Connections accepted", 2, server.connections());
+			Assert.assertEquals("Lookups", 1, table.lookups);
+			Assert.assertEquals("Hits", 1, dns.hits());
+		} finally {
+			pool.close();
+			server.close();
+		}
+	}
+
+	@Test
+	public void forgetsHostsWhoseAddressesAllFail() throws IOException {
+		DnsCache dns = new DnsCache(60000, 1000, table);
+		ConnectionPool pool = new ConnectionPool(ConnectionPool.DEFAULT_IDLE_TIMEOUT,
+				ConnectionPool.DEFAULT_MAX_PER_HOST, ConnectionPool.Transport.CHANNEL, dns);
+		try {
+			// (nothing listens on port 1)
+			MyURL url = new MyURL("http://example.test:1/basic.txt");
+			for (int i = 0; i < 2; i++) {
+				try {
+					new WebTransactionClient(url, pool);
+					Assert.fail("Connected to nothing");
+				} catch (IOException e) {
+					// expected
+				}
+			}
+			Assert.assertEquals("Lookups", 2, table.lookups);
+		} finally {
+			pool.close();
+		}
+	}
+}
@@ -0,0 +1,205 @@
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of marked-up text, parsed once into styled words so that {@link Display} doesn't have to re-parse the
+ * markup every time it paints.
+ * <p/>
+ * The markup is:  {@code *bold*}, {@code _italic_}, {@code [[url link text]]} (or just {@code [[url]]}) and
+ * {@code <<image url>>}.  Bold, italic and links may span several words (and lines).  A document is immutable.
+ */
+public class Document {
+
+	/**
+	 * One word of the document:  either styled text (possibly part of a link) or an image.
+	 */
+	public static final class Word {
+		private final String text;   // null for an image
+		private final int style;     // a combination of Font.PLAIN, Font.BOLD and Font.ITALIC
+		private final String link;   // the URL the word links to, or null
+		private final String image;  // the URL of the image, or null
+
+		private Word(String text, int style, String link, String image) {
+			this.text = text;
+			this.style = style;
+			this.link = link;
+			this.image = image;
+		}
+
+		/**
+		 * @return the text of the word, without its markup (or {@code null} if the word is an image).
+		 */
+		public String text() {
+			return text;
+		}
+
+		/**
+		 * @return the font style of the word ({@code Font.PLAIN}, {@code Font.BOLD}, {@code Font.ITALIC} or both).
+		 */
+		public int style() {
+			return style;
+		}
+
+		/**
+		 * @return the (possibly relative) URL that the word links to, or {@code null} if it isn't a link.
+		 */
+		public String link() {
+			return link;
+		}
+
+		/**
+		 * @return the (possibly relative) URL of the image, or {@code null} if the word is text.
+		 */
+		public String image() {
+			return image;
+		}
+
+		public boolean isImage() {
+			return image != null;
+		}
+	}
+
+	private final List<List<Word>> lines;
+	private final List<String> images;
+	private final List<String> links;
+	private final int wordCount;
+
+	private Document(List<List<Word>> lines, List<String> images, List<String> links, int wordCount) {
+		this.lines = lines;
+		this.images = images;
+		this.links = links;
+		this.wordCount = wordCount;
+	}
+
+	/**
+	 * Parse lines of marked-up text.
+	 *
+	 * @param text the lines of the document
+	 * @return the parsed document.
+	 */
+	public static Document parse(List<String> text) {
+		List<List<Word>> lines = new ArrayList<List<Word>>(text.size());
+		List<String> images = new ArrayList<String>();
+		List<String> links = new ArrayList<String>();
+		int wordCount = 0;
+
+		// markup that is still open at the end of a line carries on to the next one
+		boolean bold = false;
+		boolean italic = false;
+		boolean link = false;
+
+		for (String line : text) {
+			List<String> tokens = split(line);
+			List<Word> words = new ArrayList<Word>(tokens.size());
+			String url = null;
+
+			for (int i = 0; i < tokens.size(); i++) {
+				String nextWord = tokens.get(i);
+
+				// check for an image
+				if (nextWord.startsWith("<<") && nextWord.endsWith(">>") && nextWord.length() >= 4) {
+					String image = nextWord.substring(2, nextWord.length() - 2);
+					words.add(new Word(null, Font.PLAIN, null, image));
+					images.add(image);
+					continue;
+				}
+
+				// start of bold and italic markup
+				if (nextWord.startsWith("*")) {
+					bold = true;
+					nextWord = nextWord.substring(1);
+				}
+				if (nextWord.startsWith("_")) {
+					italic = true;
+					nextWord = nextWord.substring(1);
+				}
+
+				// a link's first word is its URL;  the words after it (if any) are what is displayed
+				if (nextWord.startsWith("[[")) {
+					link = true;
+					nextWord = nextWord.substring(2);
+					url = nextWord;
+					if (url.endsWith("]]"))
+						url = url.substring(0, url.length() - 2);
+					else if (i + 1 < tokens.size())
+						nextWord = tokens.get(++i);
+					links.add(url);
+				}
+
+				int style = Font.PLAIN;
+				if (bold)
+					style = Font.BOLD;
+				if (italic)
+					style += Font.ITALIC;
+				String wordLink = link ? url : null;
+
+				// end of markup
+				if (nextWord.endsWith("*")) {
+					bold = false;
+					nextWord = nextWord.substring(0, nextWord.length() - 1);
+				}
+				if (nextWord.endsWith("_")) {
+					italic = false;
+					nextWord = nextWord.substring(0, nextWord.length() - 1);
+				}
+				if (nextWord.endsWith("]]")) {
+					link = false;
+					nextWord = nextWord.substring(0, nextWord.length() - 2);
+				}
+
+				words.add(new Word(nextWord, style, wordLink, null));
+			}
+			wordCount += words.size();
+			lines.add(Collections.unmodifiableList(words));
+		}
+		return new Document(Collections.unmodifiableList(lines), Collections.unmodifiableList(images),
+				Collections.unmodifiableList(links), wordCount);
+	}
+
+	// Split a line into words at whitespace (the same words a Scanner would return).
+	private static List<String> split(String line) {
+		List<String> tokens = new ArrayList<String>();
+		int length = line.length();
+		int i = 0;
+		while (i < length) {
+			while (i < length && Character.isWhitespace(line.charAt(i)))
+				i++;
+			int start = i;
+			while (i < length && !Character.isWhitespace(line.charAt(i)))
+				i++;
+			if (i > start)
+				tokens.add(line.substring(start, i));
+		}
+		return tokens;
+	}
+
+	/**
+	 * @return the lines of the document, each a list of words.
+	 */
+	public List<List<Word>> lines() {
+		return lines;
+	}
+
+	/**
+	 * @return the URL of every image, in order (as written in the document, so possibly relative).
+	 */
+	public List<String> images() {
+		return images;
+	}
+
+	/**
+	 * @return the URL of every link, in order (as written in the document, so possibly relative).
+	 */
+	public List<String> links() {
+		return links;
+	}
+
+	/**
+	 * @return the number of words (including images) in the document.
+	 */
+	public int wordCount() {
+		return wordCount;
+	}
+}
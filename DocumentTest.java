@@ -0,0 +1,76 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.List;
+
+public class DocumentTest {
+
+	private List<Document.Word> parseLine(String line) {
+		return Document.parse(Arrays.asList(line)).lines().get(0);
+	}
+
+	private void verifyWord(Document.Word word, String text, int style, String link) {
+		Assert.assertEquals("Text differs: ", text, word.text());
+		Assert.assertEquals("Style differs: ", style, word.style());
+		Assert.assertEquals("Link differs: ", link, word.link());
+	}
+
+	@Test
+	public void parsesPlainWords() {
+		List<Document.Word> words = parseLine("  One   plain\tline ");
+		Assert.assertEquals(3, words.size());
+		verifyWord(words.get(0), "One", Font.PLAIN, null);
+		verifyWord(words.get(2), "line", Font.PLAIN, null);
+	}
+
+	@Test
+	public void parsesBoldAndItalicAcrossWords() {
+		List<Document.Word> words = parseLine("Two *bold words* and _italic ones_ done");
+		verifyWord(words.get(1), "bold", Font.BOLD, null);
+		verifyWord(words.get(2), "words", Font.BOLD, null);
+		verifyWord(words.get(3), "and", Font.PLAIN, null);
+		verifyWord(words.get(4), "italic", Font.ITALIC, null);
+		verifyWord(words.get(5), "ones", Font.ITALIC, null);
+		verifyWord(words.get(6), "done", Font.PLAIN, null);
+	}
+
+	@Test
+	public void parsesBoldItalic() {
+		verifyWord(parseLine("*_both_*").get(0), "both", Font.BOLD + Font.ITALIC, null);
+	}
+
+	@Test
+	public void markupCarriesOverToTheNextLine() {
+		Document document = Document.parse(Arrays.asList("start *bold", "still bold* plain"));
+		verifyWord(document.lines().get(1).get(0), "still", Font.BOLD, null);
+		verifyWord(document.lines().get(1).get(1), "bold", Font.BOLD, null);
+		verifyWord(document.lines().get(1).get(2), "plain", Font.PLAIN, null);
+	}
+
+	@Test
+	public void parsesLinkWithText() {
+		List<Document.Word> words = parseLine("See [[Images/logo1.png Link to image]] here");
+		Assert.assertEquals(5, words.size());
+		verifyWord(words.get(1), "Link", Font.PLAIN, "Images/logo1.png");
+		verifyWord(words.get(3), "image", Font.PLAIN, "Images/logo1.png");
+		verifyWord(words.get(4), "here", Font.PLAIN, null);
+	}
+
+	@Test
+	public void parsesLinkWithoutText() {
+		List<Document.Word> words = parseLine("Local link no text: [[boldAndItalic.txt]] after");
+		verifyWord(words.get(4), "boldAndItalic.txt", Font.PLAIN, "boldAndItalic.txt");
+		verifyWord(words.get(5), "after", Font.PLAIN, null);
+	}
+
+	@Test
+	public void parsesImages() {
+		Document document = Document.parse(Arrays.asList("Local 1:", "<<logo1.png>>", "<<Images/gvsu3.gif>>"));
+		Assert.assertTrue(document.lines().get(1).get(0).isImage());
+		Assert.assertEquals("logo1.png", document.lines().get(1).get(0).image());
+		Assert.assertEquals(Arrays.asList("logo1.png", "Images/gvsu3.gif"), document.images());
+		Assert.assertEquals(4, document.wordCount());
+	}
+}
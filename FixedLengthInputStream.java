@@ -0,0 +1,72 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A response body whose size was given by a {@code Content-Length} header.  Reports end of stream after exactly
+ * that many bytes, so the connection underneath can be reused for the next request.
+ */
+public class FixedLengthInputStream extends FilterInputStream {
+
+	private long remaining;
+
+	/**
+	 * @param in     the connection's input stream, positioned at the start of the body
+	 * @param length the number of bytes in the body
+	 */
+	public FixedLengthInputStream(InputStream in, long length) {
+		super(in);
+		remaining = length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (remaining <= 0)
+			return -1;
+		int b = in.read();
+		if (b == -1)
+			throw new IOException("Connection closed with " + remaining + " bytes of the body missing");
+		remaining--;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (remaining <= 0)
+			return -1;
+		int count = in.read(b, off, (int) Math.min(len, remaining));
+		if (count == -1)
+			throw new IOException("Connection closed with " + remaining + " bytes of the body missing");
+		remaining -= count;
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(Math.min(n, remaining));
+		remaining -= skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(in.available(), remaining);
+	}
+
+	/**
+	 * @return the number of bytes of the body that haven't been read yet.
+	 */
+	public long remaining() {
+		return remaining;
+	}
+
+	// The underlying stream belongs to the connection, so closing the body must not close it.
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
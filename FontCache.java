@@ -0,0 +1,130 @@
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fonts a page is drawn with, and the widths of the words drawn in them.
+ * <p/>
+ * Each style ({@code Font.PLAIN}, {@code Font.BOLD}, {@code Font.ITALIC} and bold-italic) is derived from the base
+ * font, and its {@code FontMetrics} looked up, only once.  The widths of the most recently measured
+ * {@code maxWords} words of each style are remembered, so laying a page out again (e.g., when the window is
+ * resized) measures almost nothing.
+ * <p/>
+ * A font cache is not thread-safe;  each {@link Display} has its own.
+ */
+public class FontCache {
+
+	public static final int DEFAULT_MAX_WORDS = 4096;
+
+	private static final int STYLES = 4;  // every combination of BOLD and ITALIC
+
+	private final Font base;
+	private final Font[] fonts = new Font[STYLES];
+	private final FontMetrics[] metrics = new FontMetrics[STYLES];
+	private final List<Map<String, Long>> widths = new ArrayList<Map<String, Long>>(STYLES);
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param base     the plain font
+	 * @param measurer the component whose {@code getFontMetrics} measures text
+	 */
+	public FontCache(Font base, Component measurer) {
+		this(base, measurer, DEFAULT_MAX_WORDS);
+	}
+
+	/**
+	 * @param base     the plain font
+	 * @param measurer the component whose {@code getFontMetrics} measures text
+	 * @param maxWords the most word widths to remember for each style
+	 */
+	public FontCache(Font base, Component measurer, final int maxWords) {
+		this.base = base;
+		for (int style = 0; style < STYLES; style++) {
+			fonts[style] = style == Font.PLAIN ? base : base.deriveFont(style);
+			metrics[style] = measurer.getFontMetrics(fonts[style]);
+
+			// In access order, so the least recently used word is the one forgotten.
+			widths.add(new LinkedHashMap<String, Long>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+					return size() > maxWords;
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return the plain font that the others are derived from.
+	 */
+	public Font base() {
+		return base;
+	}
+
+	/**
+	 * @param style a combination of {@code Font.PLAIN}, {@code Font.BOLD} and {@code Font.ITALIC}
+	 * @return the font for that style.
+	 */
+	public Font font(int style) {
+		return fonts[style];
+	}
+
+	/**
+	 * @param style a combination of {@code Font.PLAIN}, {@code Font.BOLD} and {@code Font.ITALIC}
+	 * @return the metrics of the font for that style.
+	 */
+	public FontMetrics metrics(int style) {
+		return metrics[style];
+	}
+
+	/**
+	 * @param word  a word
+	 * @param style its style
+	 * @return the width of the word.
+	 */
+	public int width(String word, int style) {
+		return (int) measure(word, style);
+	}
+
+	/**
+	 * @param word  a word
+	 * @param style its style
+	 * @return the width of the word followed by a space (i.e., how far along the next word starts).
+	 */
+	public int widthWithSpace(String word, int style) {
+		return (int) (measure(word, style) >>> 32);
+	}
+
+	// Both widths of a word, packed into one long:  with the space in the high half, without it in the low half.
+	private long measure(String word, int style) {
+		Map<String, Long> styleWidths = widths.get(style);
+		Long known = styleWidths.get(word);
+		if (known != null) {
+			hits++;
+			return known;
+		}
+		misses++;
+		FontMetrics fontMetrics = metrics[style];
+		long both = ((long) fontMetrics.stringWidth(word + " ") << 32) | fontMetrics.stringWidth(word);
+		styleWidths.put(word, both);
+		return both;
+	}
+
+	/**
+	 * @return the number of widths that were already known.
+	 */
+	public long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of widths that had to be measured.
+	 */
+	public long misses() {
+		return misses;
+	}
+}
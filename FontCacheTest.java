@@ -0,0 +1,53 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import javax.swing.JPanel;
+
+public class FontCacheTest {
+
+	private final Component measurer = new JPanel();
+	private final Font font = new Font(Font.SERIF, Font.PLAIN, 14);
+
+	@Test
+	public void derivesEachStyleOnce() {
+		FontCache fonts = new FontCache(font, measurer);
+		Assert.assertSame(font, fonts.font(Font.PLAIN));
+		Assert.assertTrue(fonts.font(Font.BOLD).isBold());
+		Assert.assertTrue(fonts.font(Font.ITALIC).isItalic());
+		Assert.assertEquals(Font.BOLD + Font.ITALIC, fonts.font(Font.BOLD + Font.ITALIC).getStyle());
+		Assert.assertSame(fonts.font(Font.BOLD), fonts.font(Font.BOLD));
+		Assert.assertSame(fonts.metrics(Font.ITALIC), fonts.metrics(Font.ITALIC));
+	}
+
+	@Test
+	public void measuresLikeFontMetrics() {
+		FontCache fonts = new FontCache(font, measurer);
+		FontMetrics bold = measurer.getFontMetrics(font.deriveFont(Font.BOLD));
+		Assert.assertEquals(bold.stringWidth("browser"), fonts.width("browser", Font.BOLD));
+		Assert.assertEquals(bold.stringWidth("browser "), fonts.widthWithSpace("browser", Font.BOLD));
+	}
+
+	@Test
+	public void remembersWidths() {
+		FontCache fonts = new FontCache(font, measurer);
+		fonts.width("word", Font.PLAIN);
+		fonts.widthWithSpace("word", Font.PLAIN);
+		fonts.width("word", Font.ITALIC);
+		Assert.assertEquals(1, fonts.hits());
+		Assert.assertEquals(2, fonts.misses());
+	}
+
+	@Test
+	public void forgetsTheLeastRecentlyUsedWords() {
+		FontCache fonts = new FontCache(font, measurer, 2);
+		fonts.width("one", Font.PLAIN);
+		fonts.width("two", Font.PLAIN);
+		fonts.width("one", Font.PLAIN);
+		fonts.width("three", Font.PLAIN);  // forgets "two"
+		fonts.width("one", Font.PLAIN);
+		fonts.width("two", Font.PLAIN);
+		Assert.assertEquals(2, fonts.hits());
+		Assert.assertEquals(4, fonts.misses());
+	}
+}
@@ -0,0 +1,239 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The pages visited, for the Back and Forward buttons.
+ * <p/>
+ * Each page is remembered with its URL (as resolved, redirects and all) and how far down it was scrolled.  The most
+ * recently shown pages also keep their parsed {@link Document}, so going back to one of them just shows it again:
+ * no request, and no parsing.  The documents kept take up at most {@code maxBytes} (as estimated by
+ * {@link #estimateBytes(Document)});  when there are more, the least recently shown are dropped, and those pages
+ * are fetched again if they are gone back to.
+ * <p/>
+ * A history is used from one thread (the browser's Event Dispatch Thread).
+ */
+public class History {
+
+	public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+	public static final int DEFAULT_MAX_ENTRIES = 100;
+
+	/**
+	 * One visit to a page.
+	 */
+	public static final class Entry {
+		private final MyURL url;
+		private Document document;  // null if it has been dropped to save memory
+		private long bytes;
+		private int scroll = 0;
+
+		private Entry(MyURL url) {
+			this.url = url;
+		}
+
+		public MyURL url() {
+			return url;
+		}
+
+		/**
+		 * @return the page as it was shown, or {@code null} if it is no longer kept (and has to be fetched again).
+		 */
+		public Document document() {
+			return document;
+		}
+
+		/**
+		 * @return how far down (in pixels) the page was scrolled when it was left.
+		 */
+		public int scroll() {
+			return scroll;
+		}
+	}
+
+	private final long maxBytes;
+	private final int maxEntries;
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private int current = -1;
+
+	// The entries that have a document, least recently shown first.
+	private final Set<Entry> kept = new LinkedHashSet<Entry>();
+	private long currentBytes = 0;
+
+	public History() {
+		this(DEFAULT_MAX_BYTES, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param maxBytes   the most (estimated) memory to spend on the documents of pages that have been left
+	 * @param maxEntries the most pages to remember (the oldest are forgotten first)
+	 */
+	public History(long maxBytes, int maxEntries) {
+		this.maxBytes = maxBytes;
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Record a page that has been navigated to (by following a link or typing a URL).  It becomes the current page,
+	 * and the pages that were forward of the old current page are forgotten.  Visiting the current page again (e.g.,
+	 * reloading it) replaces it rather than adding another entry.
+	 *
+	 * @param url      the page's URL
+	 * @param document the page
+	 * @return the entry for the page.
+	 */
+	public Entry visit(MyURL url, Document document) {
+		Entry entry = current();
+		if (entry == null || !entry.url.equals(url)) {
+			while (entries.size() > current + 1)
+				forget(entries.remove(entries.size() - 1));
+			entry = new Entry(url);
+			entries.add(entry);
+			current++;
+			if (entries.size() > maxEntries) {
+				forget(entries.remove(0));
+				current--;
+			}
+		}
+		keep(entry, document);
+		return entry;
+	}
+
+	/**
+	 * Record a page that was gone back (or forward) to, and had to be fetched again because its document had been
+	 * dropped.
+	 *
+	 * @param entry    the page's entry
+	 * @param document the page, as fetched again
+	 */
+	public void restored(Entry entry, Document document) {
+		if (entries.contains(entry))
+			keep(entry, document);
+	}
+
+	/**
+	 * @return the page being shown, or {@code null} if there hasn't been one yet.
+	 */
+	public Entry current() {
+		return current < 0 ? null : entries.get(current);
+	}
+
+	/**
+	 * Remember how far down the current page is scrolled (before leaving it).
+	 *
+	 * @param scroll the vertical scroll position, in pixels
+	 */
+	public void setScroll(int scroll) {
+		if (current >= 0)
+			entries.get(current).scroll = scroll;
+	}
+
+	public boolean canGoBack() {
+		return current > 0;
+	}
+
+	public boolean canGoForward() {
+		return current + 1 < entries.size();
+	}
+
+	/**
+	 * @return the entry of the page before the current one (without going back to it), or {@code null} if there
+	 * isn't one.
+	 */
+	public Entry previous() {
+		return canGoBack() ? entries.get(current - 1) : null;
+	}
+
+	/**
+	 * @return the entry of the page after the current one (without going forward to it), or {@code null} if there
+	 * isn't one.
+	 */
+	public Entry next() {
+		return canGoForward() ? entries.get(current + 1) : null;
+	}
+
+	/**
+	 * Make a page that has been gone back or forward to current, once it is actually on the screen (e.g., after
+	 * it has been fetched again).  The current page is left alone if {@code entry} is no longer remembered.
+	 *
+	 * @param entry the page's entry, from {@link #previous()} or {@link #next()}
+	 */
+	public void show(Entry entry) {
+		int index = entries.indexOf(entry);
+		if (index >= 0) {
+			current = index;
+
+			// the page is being shown again, so its document is the last to be dropped
+			if (kept.remove(entry))
+				kept.add(entry);
+		}
+	}
+
+	private void keep(Entry entry, Document document) {
+		forget(entry);
+		long bytes = estimateBytes(document);
+
+		// a document bigger than the whole budget isn't kept at all
+		if (bytes > maxBytes)
+			return;
+		entry.document = document;
+		entry.bytes = bytes;
+		kept.add(entry);
+		currentBytes += bytes;
+
+		// drop the least recently shown documents until we are back under budget
+		Iterator<Entry> oldest = kept.iterator();
+		while (currentBytes > maxBytes && oldest.hasNext()) {
+			Entry victim = oldest.next();
+			oldest.remove();
+			currentBytes -= victim.bytes;
+			victim.document = null;
+			victim.bytes = 0;
+		}
+	}
+
+	private void forget(Entry entry) {
+		if (kept.remove(entry)) {
+			currentBytes -= entry.bytes;
+			entry.document = null;
+			entry.bytes = 0;
+		}
+	}
+
+	/**
+	 * Estimate how much memory a parsed document takes up.
+	 *
+	 * @param document the document
+	 * @return the approximate size of the document's words and lines, in bytes.
+	 */
+	public static long estimateBytes(Document document) {
+
+		// (object headers and references, as on a 64-bit JVM with compressed pointers)
+		long bytes = 64;
+		for (List<Document.Word> line : document.lines()) {
+			bytes += 40 + 4L * line.size();
+			for (Document.Word word : line) {
+				bytes += 24;
+				String text = word.isImage() ? word.image() : word.text();
+				if (text != null)
+					bytes += 40 + text.length();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the number of pages remembered.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the estimated size of the documents kept, in bytes.
+	 */
+	public long currentBytes() {
+		return currentBytes;
+	}
+}
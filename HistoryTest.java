@@ -0,0 +1,178 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+public class HistoryTest {
+
+	private MyURL url(int i) {
+		return new MyURL("http://fred.com/page" + i + ".txt");
+	}
+
+	// A document of the given number of lines.
+	private Document page(int lines) {
+		List<String> text = new ArrayList<String>();
+		for (int i = 0; i < lines; i++)
+			text.add("line " + i + " of *the* page [[next.txt with a link]]");
+		return Document.parse(text);
+	}
+
+	// Go back (or forward) the way the browser does:  look at the page, and show it.
+	private History.Entry back(History history) {
+		return show(history, history.previous());
+	}
+
+	private History.Entry forward(History history) {
+		return show(history, history.next());
+	}
+
+	private History.Entry show(History history, History.Entry entry) {
+		if (entry != null)
+			history.show(entry);
+		return entry;
+	}
+
+	@Test
+	public void goesBackAndForward() {
+		History history = new History();
+		Assert.assertNull(history.current());
+		Assert.assertNull(back(history));
+		Document[] pages = {page(1), page(2), page(3)};
+		for (int i = 0; i < pages.length; i++)
+			history.visit(url(i), pages[i]);
+		Assert.assertFalse(history.canGoForward());
+
+		Assert.assertEquals(url(1), back(history).url());
+		History.Entry first = back(history);
+		Assert.assertEquals(url(0), first.url());
+		Assert.assertSame("Not kept", pages[0], first.document());
+		Assert.assertFalse(history.canGoBack());
+		Assert.assertNull(back(history));
+		Assert.assertSame(first, history.current());
+
+		Assert.assertSame(pages[1], forward(history).document());
+		Assert.assertSame(pages[2], forward(history).document());
+		Assert.assertNull(forward(history));
+	}
+
+	// Going back to a page that has to be fetched again only moves the history once it has arrived.
+	@Test
+	public void looksBackAndForwardWithoutMoving() {
+		History history = new History();
+		for (int i = 0; i < 3; i++)
+			history.visit(url(i), page(1));
+		History.Entry previous = history.previous();
+		Assert.assertEquals(url(1), previous.url());
+		Assert.assertEquals(url(2), history.current().url());
+		Assert.assertNull(history.next());
+
+		history.show(previous);
+		Assert.assertSame(previous, history.current());
+		Assert.assertEquals(url(2), history.next().url());
+		Assert.assertEquals(url(0), history.previous().url());
+
+		// a page that has since been forgotten isn't shown
+		History.Entry forgotten = history.next();
+		history.visit(url(3), page(1));
+		history.show(forgotten);
+		Assert.assertEquals(url(3), history.current().url());
+	}
+
+	@Test
+	public void visitingForgetsThePagesForward() {
+		History history = new History();
+		for (int i = 0; i < 3; i++)
+			history.visit(url(i), page(1));
+		back(history);
+		back(history);
+		history.visit(url(3), page(1));
+		Assert.assertEquals(2, history.size());
+		Assert.assertFalse(history.canGoForward());
+		Assert.assertEquals(url(0), back(history).url());
+		Assert.assertEquals("Forgotten pages still counted", 2 * History.estimateBytes(page(1)),
+				history.currentBytes());
+	}
+
+	@Test
+	public void rememberTheScrollPositionOfEachPage() {
+		History history = new History();
+		history.visit(url(0), page(1));
+		history.setScroll(500);
+		history.visit(url(1), page(1));
+		history.setScroll(20);
+		Assert.assertEquals(500, back(history).scroll());
+		Assert.assertEquals(20, forward(history).scroll());
+	}
+
+	@Test
+	public void reloadingReplacesTheCurrentPage() {
+		History history = new History();
+		history.visit(url(0), page(1));
+		Document reloaded = page(2);
+		History.Entry entry = history.visit(url(0), reloaded);
+		Assert.assertEquals(1, history.size());
+		Assert.assertSame(reloaded, entry.document());
+		Assert.assertEquals(History.estimateBytes(reloaded), history.currentBytes());
+	}
+
+	@Test
+	public void dropsTheLeastRecentlyShownDocumentsOverBudget() {
+		Document big = page(100);
+		long bytes = History.estimateBytes(big);
+		History history = new History(3 * bytes, History.DEFAULT_MAX_ENTRIES);
+		History.Entry[] entries = new History.Entry[4];
+		for (int i = 0; i < 4; i++)
+			entries[i] = history.visit(url(i), page(100));
+		Assert.assertNull("Not dropped", entries[0].document());
+		Assert.assertEquals(3 * bytes, history.currentBytes());
+
+		// going back shows the pages again, so the last page is now the least recently shown
+		Assert.assertNotNull(back(history).document());
+		Assert.assertNotNull(back(history).document());
+
+		// the dropped page is still in the history, and is kept again once it has been fetched again
+		History.Entry dropped = back(history);
+		Assert.assertSame(entries[0], dropped);
+		Assert.assertNull(dropped.document());
+		history.restored(dropped, big);
+		Assert.assertSame(big, dropped.document());
+		Assert.assertNull("Not dropped", entries[3].document());
+		Assert.assertNotNull(entries[1].document());
+		Assert.assertNotNull(entries[2].document());
+		Assert.assertEquals(3 * bytes, history.currentBytes());
+	}
+
+	@Test
+	public void documentsBiggerThanTheBudgetArentKept() {
+		Document page = page(10);
+		History history = new History(History.estimateBytes(page) - 1, History.DEFAULT_MAX_ENTRIES);
+		History.Entry entry = history.visit(url(0), page);
+		Assert.assertNull(entry.document());
+		Assert.assertEquals(0, history.currentBytes());
+		Assert.assertSame(entry, history.current());
+	}
+
+	@Test
+	public void forgetsTheOldestPages() {
+		History history = new History(History.DEFAULT_MAX_BYTES, 3);
+		for (int i = 0; i < 5; i++)
+			history.visit(url(i), page(1));
+		Assert.assertEquals(3, history.size());
+		Assert.assertEquals(url(3), back(history).url());
+		Assert.assertEquals(url(2), back(history).url());
+		Assert.assertFalse(history.canGoBack());
+		Assert.assertEquals(3 * History.estimateBytes(page(1)), history.currentBytes());
+	}
+
+	@Test
+	public void estimatesGrowWithTheText() {
+		long oneLine = History.estimateBytes(Document.parse(Arrays.asList("a few words")));
+		long longer = History.estimateBytes(Document.parse(Arrays.asList("a few more words, and longer ones")));
+		Assert.assertTrue(oneLine > 0);
+		Assert.assertTrue(longer > oneLine);
+		Assert.assertTrue(History.estimateBytes(page(1000)) > 1000 * History.estimateBytes(page(1)) / 2);
+	}
+}
@@ -0,0 +1,335 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A buffered input stream for one connection that can also parse the head (status line and headers) of an HTTP
+ * response directly from its buffer.
+ * <p/>
+ * Unlike {@code DataInputStream.readLine}, which reads one byte at a time from the socket, lines are found by
+ * scanning the buffer, and header names are lower-cased as bytes before a {@code String} is made from them.
+ * The line buffer is reused for every response on the connection.  This class is not thread-safe:  a connection
+ * is only ever used by one request at a time.
+ * <p/>
+ * The bytes come either from a socket's {@code InputStream} (through a heap buffer) or straight from a
+ * {@code SocketChannel} into a pooled direct buffer, so that bodies reach the image and charset decoders without
+ * an intermediate copy on the Java heap.  The channel is non-blocking, and registered once with a selector of
+ * its own, which reads (and the connection's writes, see {@link #await(int)}) wait on when there is nothing to do.
+ */
+public class HttpInputStream extends InputStream {
+
+	private static final int BUFFER_SIZE = 8192;  // for stream-backed connections
+	private static final int MAX_LINE = 64 * 1024;  // longest status or header line we are willing to buffer
+
+	private final InputStream source;          // exactly one of source and channel is set
+	private final SocketChannel channel;
+	private final SelectionKey key;            // the channel's registration with its selector
+
+	// the unread bytes are between the buffer's position and its limit
+	private final ByteBuffer buffer;
+
+	// how long a channel read waits for data (0 for ever)
+	private int readTimeout = 0;
+
+	private byte[] line = new byte[256];  // the most recent line read by readLine (without its CRLF)
+	private int lineLength;
+
+	/**
+	 * @param source the socket's input stream
+	 */
+	public HttpInputStream(InputStream source) {
+		this.source = source;
+		this.channel = null;
+		this.key = null;
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.limit(0);
+	}
+
+	/**
+	 * @param channel  the socket's channel, which is switched to non-blocking mode for good
+	 * @param selector the selector to wait for the channel on;  the caller closes it along with the channel
+	 * @param buffer   the buffer to read into (usually a direct buffer from a {@link ByteBufferPool})
+	 * @throws IOException if the channel can't be registered with the selector.
+	 */
+	public HttpInputStream(SocketChannel channel, Selector selector, ByteBuffer buffer) throws IOException {
+		this.source = null;
+		this.channel = channel;
+		this.buffer = buffer;
+		buffer.clear().limit(0);
+		channel.configureBlocking(false);
+		this.key = channel.register(selector, 0);
+	}
+
+	/**
+	 * @return the buffer this stream reads into.
+	 */
+	ByteBuffer buffer() {
+		return buffer;
+	}
+
+	/**
+	 * Give up on a channel read (or write) that waits more than {@code readTimeout} milliseconds, with a
+	 * {@code SocketTimeoutException} (as a socket with {@code SO_TIMEOUT} does).
+	 *
+	 * @param readTimeout the timeout, in milliseconds (0 to wait for ever)
+	 */
+	void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Wake a channel read that is waiting for data, e.g., after the channel has been closed from another thread.
+	 */
+	void wakeUp() {
+		if (key != null)
+			key.selector().wakeup();
+	}
+
+	/**
+	 * Wait until the channel is ready for {@code operation} ({@code SelectionKey.OP_READ} or {@code OP_WRITE}), for
+	 * at most the read timeout.
+	 *
+	 * @param operation what to wait for
+	 * @throws SocketTimeoutException if the channel isn't ready in time.
+	 * @throws IOException            if the channel is closed, or the thread is interrupted, while waiting.
+	 */
+	void await(int operation) throws IOException {
+		Selector selector = key.selector();
+		try {
+			key.interestOps(operation);
+		} catch (CancelledKeyException e) {
+			throw new ClosedChannelException();
+		}
+		long deadline = System.currentTimeMillis() + readTimeout;
+		while (true) {
+			long left = readTimeout == 0 ? 0 : deadline - System.currentTimeMillis();
+			if (readTimeout > 0 && left <= 0)
+				throw new SocketTimeoutException(operation == SelectionKey.OP_WRITE ? "Write timed out"
+						: "Read timed out");
+			int ready = selector.select(left);
+			selector.selectedKeys().clear();
+			if (Thread.currentThread().isInterrupted())
+				throw new InterruptedIOException("Interrupted while waiting for the connection");
+
+			// (a channel closed from another thread cancels its key, and wakes the select)
+			if (!key.isValid())
+				throw new ClosedChannelException();
+			if (ready > 0)
+				return;
+		}
+	}
+
+
+	/**
+	 * Read the status line of a response (e.g., "HTTP/1.1 200 OK") and the headers after it.  Header names are
+	 * lower-cased; surrounding whitespace is removed from names and values.  Lines without a colon are ignored.
+	 *
+	 * @param headers the map to put the headers into
+	 * @return the status line, or {@code null} if the connection was closed before a response arrived.
+	 * @throws IOException if the connection closes in the middle of the headers.
+	 */
+	public String readResponseHead(Map<String, String> headers) throws IOException {
+		if (!readLine())
+			return null;
+		String statusLine = new String(line, 0, lineLength, StandardCharsets.ISO_8859_1);
+
+		while (true) {
+			if (!readLine())
+				throw new IOException("Connection closed in the middle of the response headers");
+			int end = trimEnd(0, lineLength);
+			if (end == 0)
+				return statusLine;
+
+			int colon = indexOf(':', 0, end);
+			if (colon == -1)
+				continue;
+
+			// lower-case the name in place;  header names are ASCII
+			int nameStart = trimStart(0, colon);
+			int nameEnd = trimEnd(nameStart, colon);
+			for (int i = nameStart; i < nameEnd; i++) {
+				byte b = line[i];
+				if (b >= 'A' && b <= 'Z')
+					line[i] = (byte) (b + ('a' - 'A'));
+			}
+			int valueStart = trimStart(colon + 1, end);
+			headers.put(new String(line, nameStart, nameEnd - nameStart, StandardCharsets.ISO_8859_1),
+					new String(line, valueStart, end - valueStart, StandardCharsets.ISO_8859_1));
+		}
+	}
+
+	/**
+	 * Parse the status code out of a status line such as "HTTP/1.1 404 Not Found" without splitting it.
+	 *
+	 * @param statusLine the first line of a response
+	 * @return the status code.
+	 * @throws IOException if the line doesn't contain a three digit status code.
+	 */
+	public static int parseStatusCode(String statusLine) throws IOException {
+		int start = statusLine.indexOf(' ');
+		while (start != -1 && start < statusLine.length() && statusLine.charAt(start) == ' ')
+			start++;
+		if (start == -1 || start + 3 > statusLine.length())
+			throw new IOException("Bad status line: " + statusLine);
+		int code = 0;
+		for (int i = start; i < start + 3; i++) {
+			char c = statusLine.charAt(i);
+			if (c < '0' || c > '9')
+				throw new IOException("Bad status line: " + statusLine);
+			code = code * 10 + (c - '0');
+		}
+		return code;
+	}
+
+	// Read one line (terminated by LF or CRLF) into the line buffer.  Returns false at end of stream.
+	private boolean readLine() throws IOException {
+		lineLength = 0;
+		while (true) {
+			if (!buffer.hasRemaining() && !fill())
+				return lineLength > 0;
+
+			// copy up to the end of the line (or of the buffer)
+			int start = buffer.position();
+			int limit = buffer.limit();
+			int end = start;
+			while (end < limit && buffer.get(end) != '\n')
+				end++;
+			append(end - start);
+			if (end < limit) {
+				buffer.get();  // skip the '\n'
+				if (lineLength > 0 && line[lineLength - 1] == '\r')
+					lineLength--;
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!buffer.hasRemaining() && !fill())
+			return -1;
+		return buffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!buffer.hasRemaining()) {
+
+			// large reads from a stream bypass the buffer
+			if (source != null && len >= buffer.capacity())
+				return source.read(b, off, len);
+			if (!fill())
+				return -1;
+		}
+		int count = Math.min(len, buffer.remaining());
+		buffer.get(b, off, count);
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0)
+			return 0;
+		if (!buffer.hasRemaining()) {
+			if (source != null)
+				return source.skip(n);
+			if (!fill())
+				return 0;
+		}
+		int count = (int) Math.min(n, buffer.remaining());
+		buffer.position(buffer.position() + count);
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buffer.remaining() + (source != null ? source.available() : 0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (source != null)
+			source.close();
+		else
+			channel.close();
+	}
+
+	private boolean fill() throws IOException {
+		buffer.clear();
+		int count = -1;
+		try {
+			if (source != null)
+				count = source.read(buffer.array(), 0, buffer.capacity());
+			else
+				while ((count = channel.read(buffer)) == 0)
+					await(SelectionKey.OP_READ);
+		} finally {
+
+			// leave the buffer empty (rather than full of stale bytes) if the read times out
+			buffer.position(0);
+			buffer.limit(Math.max(count, 0));
+		}
+		return count > 0;
+	}
+
+	/**
+	 * Check, without blocking, whether the server has closed an idle channel or sent something unexpected on it.
+	 *
+	 * @return true if the channel is still open and has nothing to read.
+	 */
+	boolean isIdleChannelHealthy() {
+		if (channel == null || buffer.hasRemaining())
+			return false;
+		try {
+			buffer.clear();
+			int count = channel.read(buffer);
+			buffer.flip();
+			return count == 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// Copy the next count bytes of the buffer onto the end of the line.
+	private void append(int count) throws IOException {
+		if (lineLength + count > MAX_LINE)
+			throw new IOException("Response line longer than " + MAX_LINE + " bytes");
+		if (lineLength + count > line.length) {
+			byte[] bigger = new byte[Math.max(line.length * 2, lineLength + count)];
+			System.arraycopy(line, 0, bigger, 0, lineLength);
+			line = bigger;
+		}
+		buffer.get(line, lineLength, count);
+		lineLength += count;
+	}
+
+	private int indexOf(char c, int start, int end) {
+		for (int i = start; i < end; i++)
+			if (line[i] == c)
+				return i;
+		return -1;
+	}
+
+	private int trimStart(int start, int end) {
+		while (start < end && (line[start] == ' ' || line[start] == '\t'))
+			start++;
+		return start;
+	}
+
+	private int trimEnd(int start, int end) {
+		while (end > start && (line[end - 1] == ' ' || line[end - 1] == '\t' || line[end - 1] == '\r'))
+			end--;
+		return end;
+	}
+}
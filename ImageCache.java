@@ -1,42 +1,497 @@
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 /**
  * A cache for images so that they aren't repeatedly re-loaded from the server (especially while scrolling).
+ * <p/>
+ * The cache holds at most {@code maxBytes} of decoded pixels (width &times; height &times; bytes per pixel).  When it is
+ * full, the least recently used images are evicted.  Evicted images can optionally be kept in a second tier of
+ * {@code SoftReference}s, which the garbage collector clears only when it needs the memory.
+ * <p/>
+ * The cache is thread-safe.  When several threads miss on the same image at once, only the first one loads it;
+ * the others wait for (or are handed a future for) that same load.  An image that fails to load is remembered for
+ * {@code negativeTtl} milliseconds, so a broken image isn't fetched again on every repaint.
+ * <p/>
+ * An image can be cached at several sizes:  the methods that take a {@code maxWidth} keep the image decoded to fit
+ * that width (see {@link ImageDecoder}) apart from the full-size image and from other widths.
+ * <p/>
+ * While an image is loading, the part of it decoded so far can be shown in its place (see
+ * {@link #putPartialImage}).
  */
 public class ImageCache {
 
-  private Map<MyURL, Image> imageCache = new HashMap<MyURL, Image>();
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  public static final long DEFAULT_NEGATIVE_TTL = 30000;  // milliseconds
+
+  // Most broken images are never asked for again, so only this many failures are remembered.
+  private static final int MAX_FAILURES = 256;
+
+  private static class Entry {
+    final Image image;
+    final long bytes;
+
+    Entry(Image image, long bytes) {
+      this.image = image;
+      this.bytes = bytes;
+    }
+  }
+
+  // An image at one size:  its URL, and the width it was decoded to fit (0 for its full size).
+  private static final class Key {
+    final MyURL url;
+    final int maxWidth;
+
+    Key(MyURL url, int maxWidth) {
+      this.url = url;
+      this.maxWidth = maxWidth;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return maxWidth == key.maxWidth && url.equals(key.url);
+    }
+
+    @Override
+    public int hashCode() {
+      return url.hashCode() * 31 + maxWidth;
+    }
+  }
+
+  // A soft reference that remembers its key, so it can be removed from the map once it is cleared.
+  private static class SoftEntry extends SoftReference<Image> {
+    final Key key;
+
+    SoftEntry(Key key, Image image, ReferenceQueue<Image> queue) {
+      super(image, queue);
+      this.key = key;
+    }
+  }
+
+  private final long maxBytes;
+  private final boolean softTier;
+  private final long negativeTtl;
+
+  // In access order, so the first entry is the least recently used.
+  private Map<Key, Entry> imageCache = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+  private Map<Key, SoftEntry> softCache = new HashMap<Key, SoftEntry>();
+  private ReferenceQueue<Image> cleared = new ReferenceQueue<Image>();
+
+  // Loads that are in progress, so that simultaneous misses share one load.
+  private Map<Key, CompletableFuture<Image>> inFlight = new HashMap<Key, CompletableFuture<Image>>();
+
+  // Images still being decoded by the loads in progress, to show until they finish.
+  private Map<Key, Image> partial = new HashMap<Key, Image>();
+
+  // Images that failed to load, and when they may be tried again.  In the order they failed, which (since every
+  // failure is remembered for the same time) is also the order they expire in.
+  private Map<Key, Long> failures = new LinkedHashMap<Key, Long>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+      return size() > MAX_FAILURES;
+    }
+  };
+
+  private long currentBytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
 
   /**
    * An interface that allows us to pass a method as a parameter.
    */
-  // Passing the "loadImage" method as a parameter allows us to 
-  // put the code for loading an image in the browser (where it belongs) 
+  // Passing the "loadImage" method as a parameter allows us to
+  // put the code for loading an image in the browser (where it belongs)
   public static interface ImageLoader {
     Image loadImage(MyURL url);
   }
 
+  /**
+   * An {@link ImageLoader} that starts the load and returns right away.  The future completes with the image, with
+   * {@code null} if the image isn't available, or exceptionally if the load was abandoned (e.g., cancelled).
+   */
+  public static interface AsyncImageLoader {
+    CompletableFuture<Image> loadImage(MyURL url);
+  }
+
+  public ImageCache() {
+    this(DEFAULT_MAX_BYTES, true);
+  }
+
+  /**
+   * @param maxBytes The most decoded image data to hold on to.
+   * @param softTier Whether evicted images are kept in a second tier of soft references.
+   */
+  public ImageCache(long maxBytes, boolean softTier) {
+    this(maxBytes, softTier, DEFAULT_NEGATIVE_TTL);
+  }
+
+  /**
+   * @param maxBytes    The most decoded image data to hold on to.
+   * @param softTier    Whether evicted images are kept in a second tier of soft references.
+   * @param negativeTtl How long (in milliseconds) to remember that an image failed to load.
+   */
+  public ImageCache(long maxBytes, boolean softTier, long negativeTtl) {
+    this.maxBytes = maxBytes;
+    this.softTier = softTier;
+    this.negativeTtl = negativeTtl;
+  }
+
   /**
    * Get an image.  Returns the image from the cache (if present), or loads the image from the server, if necessary.
+   * If another thread is already loading the image, waits for that load instead of starting a second one.
+   * If {@code loader} throws (e.g., because the load was cancelled), nothing is cached, not even the failure.
    *
    * @param url    The URL of the image to load.
    * @param loader The method that will load the image (if necessary)
    * @return The desired image, or {@code null} if the image was not available.
    */
   public Image getImage(MyURL url, ImageLoader loader) {
-    if (imageCache.containsKey(url)) {
-      return imageCache.get(url);
-    } else {
+    return getImage(url, 0, loader);
+  }
 
-      // The image isn't in the cache, so use the loader
-      // method to fetch the image from the server.
-      Image image = loader.loadImage(url);
+  /**
+   * Get an image decoded to fit a width, loading it with {@code loader} if necessary (as
+   * {@link #getImage(MyURL, ImageLoader)} does).
+   *
+   * @param url      The URL of the image to load.
+   * @param maxWidth The width the image is decoded to fit (0 for its full size).
+   * @param loader   The method that will load the image at that size (if necessary)
+   * @return The desired image, or {@code null} if the image was not available.
+   */
+  public Image getImage(MyURL url, int maxWidth, ImageLoader loader) {
+    Key key = new Key(url, maxWidth);
+    CompletableFuture<Image> load;
+    CompletableFuture<Image> existing;
+    synchronized (this) {
+      Image image = get(key);
+      if (image != null || hasFailed(key)) {
+        return image;
+      }
+      existing = inFlight.get(key);
+      load = null;
+      if (existing == null) {
+        load = new CompletableFuture<Image>();
+        inFlight.put(key, load);
+      }
+    }
+
+    // Someone else is already loading this image, so wait for them (outside the lock, so they can finish).
+    if (existing != null) {
+      return existing.join();
+    }
+
+    // The image isn't in the cache, so use the loader
+    // method to fetch the image from the server.
+    Image image = null;
+    boolean abandoned = true;
+    try {
+      image = loader.loadImage(url);
+      abandoned = false;
+    } finally {
+      loaded(key, load, image, abandoned);
+    }
+    return image;
+  }
+
+  /**
+   * Get an image without waiting for it.  Returns a completed future if the image is cached (or recently failed),
+   * the future of the load in progress if there is one, or starts a new load with {@code loader}.  The future
+   * completes with {@code null} if the image isn't available.
+   *
+   * @param url    The URL of the image to load.
+   * @param loader Starts loading the image (if necessary)
+   * @return A future for the desired image.
+   */
+  public CompletableFuture<Image> getImageAsync(MyURL url, AsyncImageLoader loader) {
+    return getImageAsync(url, 0, loader);
+  }
+
+  /**
+   * Get an image decoded to fit a width without waiting for it (as {@link #getImageAsync(MyURL, AsyncImageLoader)}
+   * does).
+   *
+   * @param url      The URL of the image to load.
+   * @param maxWidth The width the image is decoded to fit (0 for its full size).
+   * @param loader   Starts loading the image at that size (if necessary)
+   * @return A future for the desired image.
+   */
+  public CompletableFuture<Image> getImageAsync(MyURL url, int maxWidth, AsyncImageLoader loader) {
+    final Key key = new Key(url, maxWidth);
+    final CompletableFuture<Image> load;
+    synchronized (this) {
+      Image image = get(key);
+      if (image != null || hasFailed(key)) {
+        return CompletableFuture.completedFuture(image);
+      }
+      CompletableFuture<Image> existing = inFlight.get(key);
+      if (existing != null) {
+        return existing;
+      }
+      load = new CompletableFuture<Image>();
+      inFlight.put(key, load);
+    }
+
+    // Start the load outside the lock; it may well complete on this thread.
+    CompletableFuture<Image> started;
+    try {
+      started = loader.loadImage(url);
+    } catch (RuntimeException e) {
+      loaded(key, load, null, true);
+      throw e;
+    }
+    started.whenComplete(new BiConsumer<Image, Throwable>() {
+      @Override
+      public void accept(Image image, Throwable error) {
+        loaded(key, load, image, error != null);
+      }
+    });
+    return load;
+  }
+
+  // Record the outcome of a load and wake up everyone waiting for it.
+  private void loaded(Key key, CompletableFuture<Image> load, Image image, boolean abandoned) {
+    synchronized (this) {
+      inFlight.remove(key);
+      partial.remove(key);
       if (image != null) {
-        imageCache.put(url, image);
+        put(key, image);
+      } else if (!abandoned) {
+        failed(key);
       }
+    }
+    load.complete(image);
+  }
+
+  // Remember that an image failed to load, forgetting the failures that have expired.
+  private void failed(Key key) {
+    long now = System.currentTimeMillis();
+    Iterator<Long> retryAt = failures.values().iterator();
+    while (retryAt.hasNext() && retryAt.next() <= now) {
+      retryAt.remove();
+    }
+    failures.remove(key);  // (so it goes to the end)
+    failures.put(key, now + negativeTtl);
+  }
+
+  // True if the image failed to load recently enough that it isn't worth trying again yet.
+  private boolean hasFailed(Key key) {
+    Long retryAt = failures.get(key);
+    if (retryAt == null) {
+      return false;
+    }
+    if (System.currentTimeMillis() < retryAt) {
+      return true;
+    }
+    failures.remove(key);
+    return false;
+  }
+
+  /**
+   * @param url The URL of the image.
+   * @return True if a load of the image at its full size is in progress.
+   */
+  public synchronized boolean isLoading(MyURL url) {
+    return isLoading(url, 0);
+  }
+
+  /**
+   * @param url      The URL of the image.
+   * @param maxWidth The width the image is being decoded to fit (0 for its full size).
+   * @return True if a load of the image at that size is in progress.
+   */
+  public synchronized boolean isLoading(MyURL url, int maxWidth) {
+    return inFlight.containsKey(new Key(url, maxWidth));
+  }
+
+  /**
+   * Get an image only if it is already in the cache (or partly decoded by a load in progress).
+   *
+   * @param url The URL of the image.
+   * @return The cached image, or {@code null} if it hasn't been loaded.
+   */
+  public synchronized Image getImage(MyURL url) {
+    return getImage(url, 0);
+  }
+
+  /**
+   * Get an image decoded to fit a width, only if it is already in the cache (or partly decoded by a load in
+   * progress).
+   *
+   * @param url      The URL of the image.
+   * @param maxWidth The width the image was decoded to fit (0 for its full size).
+   * @return The cached image, or {@code null} if it hasn't been loaded at that size.
+   */
+  public synchronized Image getImage(MyURL url, int maxWidth) {
+    Key key = new Key(url, maxWidth);
+    Image image = get(key);
+    return image != null ? image : partial.get(key);
+  }
+
+  private Image get(Key key) {
+    Entry entry = imageCache.get(key);
+    if (entry != null) {
+      hits++;
+      return entry.image;
+    }
+
+    // An evicted image that the garbage collector hasn't needed to reclaim yet goes back into the main cache.
+    purgeCleared();
+    SoftEntry soft = softCache.remove(key);
+    Image image = soft == null ? null : soft.get();
+    if (image != null) {
+      hits++;
+      put(key, image);
       return image;
     }
+    misses++;
+    return null;
+  }
+
+  /**
+   * Add an image that was loaded somewhere else (e.g., on a background thread).
+   *
+   * @param url   The URL of the image.
+   * @param image The image.
+   */
+  public synchronized void putImage(MyURL url, Image image) {
+    put(new Key(url, 0), image);
+  }
+
+  /**
+   * Add an image that was decoded to fit a width somewhere else.
+   *
+   * @param url      The URL of the image.
+   * @param maxWidth The width the image was decoded to fit (0 for its full size).
+   * @param image    The image.
+   */
+  public synchronized void putImage(MyURL url, int maxWidth, Image image) {
+    put(new Key(url, maxWidth), image);
+  }
+
+  /**
+   * Show an image that is still being decoded (e.g., blank but already the right size, or the first pass of a
+   * progressive image) until its load finishes.  It is kept only while the load is in progress, so an abandoned
+   * load leaves nothing behind, and it isn't counted against the memory budget.
+   *
+   * @param url      The URL of the image.
+   * @param maxWidth The width the image is being decoded to fit (0 for its full size).
+   * @param image    The image, which the load goes on filling in.
+   */
+  public synchronized void putPartialImage(MyURL url, int maxWidth, Image image) {
+    Key key = new Key(url, maxWidth);
+    if (inFlight.containsKey(key)) {
+      partial.put(key, image);
+    }
+  }
+
+  private void put(Key key, Image image) {
+    failures.remove(key);
+    long bytes = estimateBytes(image);
+    Entry old = imageCache.remove(key);
+    if (old != null) {
+      currentBytes -= old.bytes;
+    }
+
+    // An image bigger than the whole cache can only live in the soft tier.
+    if (bytes > maxBytes) {
+      evictions++;
+      keepSoftly(key, image);
+      return;
+    }
+
+    imageCache.put(key, new Entry(image, bytes));
+    currentBytes += bytes;
+
+    // Evict least recently used images until we are back under budget.
+    Iterator<Map.Entry<Key, Entry>> oldest = imageCache.entrySet().iterator();
+    while (currentBytes > maxBytes && oldest.hasNext()) {
+      Map.Entry<Key, Entry> victim = oldest.next();
+      oldest.remove();
+      currentBytes -= victim.getValue().bytes;
+      evictions++;
+      keepSoftly(victim.getKey(), victim.getValue().image);
+    }
+  }
+
+  /**
+   * Estimate how much memory an image's pixels take up.
+   *
+   * @param image The image.
+   * @return The approximate size of the decoded image, in bytes.
+   */
+  public static long estimateBytes(Image image) {
+    int width = image.getWidth(null);
+    int height = image.getHeight(null);
+    if (width <= 0 || height <= 0) {
+      return 0;
+    }
+    int bytesPerPixel = 4;
+    if (image instanceof BufferedImage) {
+      bytesPerPixel = (((BufferedImage) image).getColorModel().getPixelSize() + 7) / 8;
+    }
+    return (long) width * height * bytesPerPixel;
+  }
+
+  private void keepSoftly(Key key, Image image) {
+    if (softTier) {
+      softCache.put(key, new SoftEntry(key, image, cleared));
+    }
+  }
+
+  // Forget soft references the garbage collector has cleared.
+  private void purgeCleared() {
+    SoftEntry entry;
+    while ((entry = (SoftEntry) cleared.poll()) != null) {
+      if (softCache.get(entry.key) == entry) {
+        softCache.remove(entry.key);
+      }
+    }
+  }
+
+  /**
+   * @return The number of lookups that found their image (in either tier).
+   */
+  public synchronized long hits() {
+    return hits;
+  }
+
+  /**
+   * @return The number of lookups that didn't find their image.
+   */
+  public synchronized long misses() {
+    return misses;
+  }
+
+  /**
+   * @return The number of images pushed out of the main cache to stay under the memory budget.
+   */
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  /**
+   * @return The number of images remembered as having failed to load.
+   */
+  public synchronized int failures() {
+    return failures.size();
+  }
+
+  /**
+   * @return The estimated size of the images in the main cache, in bytes.
+   */
+  public synchronized long currentBytes() {
+    return currentBytes;
   }
-}
\ No newline at end of file
+}
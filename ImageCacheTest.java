@@ -0,0 +1,294 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ImageCacheTest {
+
+	private static final long IMAGE_BYTES = 10 * 10 * 4;  // one 10x10 ARGB image
+
+	private MyURL url(int i) {
+		return new MyURL("http://fred.com/image" + i + ".png");
+	}
+
+	private Image image() {
+		return new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	@Test
+	public void estimatesDecodedSize() {
+		Assert.assertEquals(IMAGE_BYTES, ImageCache.estimateBytes(image()));
+		Assert.assertEquals(10 * 20, ImageCache.estimateBytes(new BufferedImage(10, 20, BufferedImage.TYPE_BYTE_GRAY)));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		ImageCache cache = new ImageCache(3 * IMAGE_BYTES, false);
+		for (int i = 0; i < 3; i++)
+			cache.putImage(url(i), image());
+
+		// touch image 0 so image 1 is now the least recently used
+		Assert.assertNotNull(cache.getImage(url(0)));
+		cache.putImage(url(3), image());
+
+		Assert.assertNull("LRU image still cached", cache.getImage(url(1)));
+		Assert.assertNotNull(cache.getImage(url(0)));
+		Assert.assertNotNull(cache.getImage(url(2)));
+		Assert.assertNotNull(cache.getImage(url(3)));
+		Assert.assertEquals("Evictions", 1, cache.evictions());
+		Assert.assertEquals("Bytes", 3 * IMAGE_BYTES, cache.currentBytes());
+	}
+
+	@Test
+	public void keepsEachSizeOfAnImageApart() {
+		ImageCache cache = new ImageCache();
+		Image small = new BufferedImage(5, 5, BufferedImage.TYPE_INT_ARGB);
+		cache.putImage(url(0), image());
+		cache.putImage(url(0), 512, small);
+		Assert.assertNotSame(small, cache.getImage(url(0)));
+		Assert.assertSame(small, cache.getImage(url(0), 512));
+		Assert.assertNull(cache.getImage(url(0), 1024));
+		Assert.assertEquals("Bytes", IMAGE_BYTES + 5 * 5 * 4, cache.currentBytes());
+
+		// loading one size doesn't count as loading another
+		final AtomicInteger loads = new AtomicInteger();
+		ImageCache.ImageLoader loader = new ImageCache.ImageLoader() {
+			@Override
+			public Image loadImage(MyURL url) {
+				loads.incrementAndGet();
+				return image();
+			}
+		};
+		cache.getImage(url(1), 512, loader);
+		cache.getImage(url(1), 512, loader);
+		cache.getImage(url(1), 1024, loader);
+		Assert.assertEquals("Loads", 2, loads.get());
+	}
+
+	@Test
+	public void countsHitsAndMisses() {
+		ImageCache cache = new ImageCache();
+		cache.putImage(url(0), image());
+		cache.getImage(url(0));
+		cache.getImage(url(0));
+		cache.getImage(url(1));
+		Assert.assertEquals("Hits", 2, cache.hits());
+		Assert.assertEquals("Misses", 1, cache.misses());
+	}
+
+	@Test
+	public void replacingAnImageDoesNotDoubleCount() {
+		ImageCache cache = new ImageCache();
+		cache.putImage(url(0), image());
+		cache.putImage(url(0), image());
+		Assert.assertEquals("Bytes", IMAGE_BYTES, cache.currentBytes());
+	}
+
+	@Test
+	public void evictedImagesComeBackFromTheSoftTier() {
+		ImageCache cache = new ImageCache(IMAGE_BYTES, true);
+		Image first = image();
+		cache.putImage(url(0), first);
+		cache.putImage(url(1), image());
+
+		// (the garbage collector only clears soft references when memory is short)
+		Assert.assertSame("Soft tier lost image", first, cache.getImage(url(0)));
+		Assert.assertEquals("Bytes", IMAGE_BYTES, cache.currentBytes());
+	}
+
+	@Test
+	public void simultaneousMissesShareOneLoad() throws Exception {
+		final ImageCache cache = new ImageCache();
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final ImageCache.ImageLoader slowLoader = new ImageCache.ImageLoader() {
+			@Override
+			public Image loadImage(MyURL url) {
+				loads.incrementAndGet();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					return null;
+				}
+				return image();
+			}
+		};
+
+		List<Thread> threads = new ArrayList<Thread>();
+		final List<Image> results = Collections.synchronizedList(new ArrayList<Image>());
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					results.add(cache.getImage(url(0), slowLoader));
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		while (!cache.isLoading(url(0)))
+			Thread.sleep(1);
+		Thread.sleep(50);
+		release.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		Assert.assertEquals("Loads", 1, loads.get());
+		Assert.assertEquals("Results", 8, results.size());
+		for (Image result : results)
+			Assert.assertSame("Different image", results.get(0), result);
+	}
+
+	@Test
+	public void asyncLoadIsSharedAndCached() {
+		ImageCache cache = new ImageCache();
+		final CompletableFuture<Image> pending = new CompletableFuture<Image>();
+		final AtomicInteger loads = new AtomicInteger();
+		ImageCache.AsyncImageLoader loader = new ImageCache.AsyncImageLoader() {
+			@Override
+			public CompletableFuture<Image> loadImage(MyURL url) {
+				loads.incrementAndGet();
+				return pending;
+			}
+		};
+
+		CompletableFuture<Image> first = cache.getImageAsync(url(0), loader);
+		CompletableFuture<Image> second = cache.getImageAsync(url(0), loader);
+		Assert.assertSame("Second load started", first, second);
+		Assert.assertNull("Image cached early", cache.getImage(url(0)));
+
+		Image image = image();
+		pending.complete(image);
+		Assert.assertSame(image, first.join());
+		Assert.assertSame(image, cache.getImage(url(0)));
+		Assert.assertEquals("Loads", 1, loads.get());
+	}
+
+	@Test
+	public void knowsWhichSizeIsLoading() {
+		ImageCache cache = new ImageCache();
+		final CompletableFuture<Image> pending = new CompletableFuture<Image>();
+		cache.getImageAsync(url(0), 512, new ImageCache.AsyncImageLoader() {
+			@Override
+			public CompletableFuture<Image> loadImage(MyURL url) {
+				return pending;
+			}
+		});
+		Assert.assertTrue(cache.isLoading(url(0), 512));
+		Assert.assertFalse("Full size loading", cache.isLoading(url(0)));
+		Assert.assertFalse(cache.isLoading(url(0), 1024));
+
+		pending.complete(image());
+		Assert.assertFalse("Still loading", cache.isLoading(url(0), 512));
+	}
+
+	@Test
+	public void partlyDecodedImagesAreShownOnlyWhileLoading() {
+		ImageCache cache = new ImageCache();
+		final List<CompletableFuture<Image>> pending = new ArrayList<CompletableFuture<Image>>();
+		ImageCache.AsyncImageLoader loader = new ImageCache.AsyncImageLoader() {
+			@Override
+			public CompletableFuture<Image> loadImage(MyURL url) {
+				CompletableFuture<Image> load = new CompletableFuture<Image>();
+				pending.add(load);
+				return load;
+			}
+		};
+
+		// only an image that is being loaded can be shown partly decoded
+		Image partial = image();
+		cache.putPartialImage(url(0), 512, partial);
+		Assert.assertNull("Not loading", cache.getImage(url(0), 512));
+
+		CompletableFuture<Image> load = cache.getImageAsync(url(0), 512, loader);
+		cache.putPartialImage(url(0), 512, partial);
+		Assert.assertSame(partial, cache.getImage(url(0), 512));
+		Assert.assertNull("Other size", cache.getImage(url(0)));
+		Assert.assertSame("Still loading", load, cache.getImageAsync(url(0), 512, loader));
+		Assert.assertEquals("Bytes", 0, cache.currentBytes());
+
+		// the finished image replaces it
+		Image finished = image();
+		pending.get(0).complete(finished);
+		Assert.assertSame(finished, cache.getImage(url(0), 512));
+
+		// an abandoned load leaves nothing behind
+		cache.getImageAsync(url(1), 512, loader);
+		cache.putPartialImage(url(1), 512, partial);
+		pending.get(1).cancel(false);
+		Assert.assertNull("Kept a partial image", cache.getImage(url(1), 512));
+		Assert.assertEquals("Bytes", IMAGE_BYTES, cache.currentBytes());
+	}
+
+	@Test
+	public void failuresAreRememberedUntilTheyExpire() throws Exception {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_MAX_BYTES, false, 50);
+		final AtomicInteger loads = new AtomicInteger();
+		ImageCache.ImageLoader broken = new ImageCache.ImageLoader() {
+			@Override
+			public Image loadImage(MyURL url) {
+				loads.incrementAndGet();
+				return null;
+			}
+		};
+		Assert.assertNull(cache.getImage(url(0), broken));
+		Assert.assertNull(cache.getImage(url(0), broken));
+		Assert.assertEquals("Loads before expiry", 1, loads.get());
+
+		Thread.sleep(100);
+		Assert.assertNull(cache.getImage(url(0), broken));
+		Assert.assertEquals("Loads after expiry", 2, loads.get());
+	}
+
+	// Broken images that nobody asks for again (e.g., one per window width) are forgotten, not kept for ever.
+	@Test
+	public void expiredFailuresAreForgotten() throws Exception {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_MAX_BYTES, false, 50);
+		ImageCache.ImageLoader broken = new ImageCache.ImageLoader() {
+			@Override
+			public Image loadImage(MyURL url) {
+				return null;
+			}
+		};
+		for (int width = 100; width < 110; width++)
+			cache.getImage(url(0), width, broken);
+		Assert.assertEquals("Failures", 10, cache.failures());
+
+		Thread.sleep(100);
+		cache.getImage(url(1), broken);
+		Assert.assertEquals("Failures after expiry", 1, cache.failures());
+
+		for (int i = 0; i < 1000; i++)
+			cache.getImage(url(i), broken);
+		Assert.assertTrue("Failures kept: " + cache.failures(), cache.failures() < 1000);
+	}
+
+	@Test
+	public void abandonedLoadsAreNotRemembered() {
+		ImageCache cache = new ImageCache();
+		final CompletableFuture<Image> pending = new CompletableFuture<Image>();
+		cache.getImageAsync(url(0), new ImageCache.AsyncImageLoader() {
+			@Override
+			public CompletableFuture<Image> loadImage(MyURL url) {
+				return pending;
+			}
+		});
+		pending.cancel(false);
+
+		final Image image = image();
+		Image loaded = cache.getImage(url(0), new ImageCache.ImageLoader() {
+			@Override
+			public Image loadImage(MyURL url) {
+				return image;
+			}
+		});
+		Assert.assertSame("Cancelled load cached as a failure", image, loaded);
+	}
+}
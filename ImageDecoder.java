@@ -0,0 +1,173 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Decodes images no bigger than they will be shown.  The image's header is read first, to find its size;  an image
+ * much wider than the page is then decoded with source subsampling (only every n<sup>th</sup> pixel of every
+ * n<sup>th</sup> row), which is much quicker than decoding every pixel and needs a fraction of the memory.  A
+ * 4000-pixel-wide photo that has to fit in 1000 pixels, for instance, is decoded 1000 pixels wide:  a sixteenth of the
+ * pixels.
+ * <p/>
+ * A subsampled image is still at least as wide as asked for, so it is only ever shrunk when it is drawn, never
+ * enlarged.
+ * <p/>
+ * Given a {@link Listener}, the decoder hands over the image as soon as the header has been read (blank, but the
+ * right size) and then tells the listener each time more of its pixels have been filled in:  row by row, and pass
+ * by pass for progressive JPEGs and interlaced PNGs.  So a page can be laid out around an image, and show a rough
+ * version of it, long before the last byte of it arrives.
+ */
+public class ImageDecoder {
+
+	// the narrowest width that is worth decoding to
+	private static final int MIN_WIDTH = 64;
+
+	/**
+	 * Watches an image being decoded.  The calls are made on the decoding thread.
+	 */
+	public static interface Listener {
+
+		/**
+		 * The image's size is known, and its pixels are about to be decoded into {@code image}.
+		 */
+		void started(BufferedImage image);
+
+		/**
+		 * More of the image's pixels have been decoded (e.g., some rows, or a whole pass of a progressive image).
+		 */
+		void updated(BufferedImage image);
+	}
+
+	/**
+	 * Round a width up to a power of two, so that resizing the window a little doesn't mean decoding (and caching)
+	 * every image again.
+	 *
+	 * @param width the width the images will be shown in, in pixels
+	 * @return the width to decode the images to fit, or 0 (full size) if {@code width} isn't known yet.
+	 */
+	public static int bucket(int width) {
+		if (width <= 0)
+			return 0;
+		return Math.max(MIN_WIDTH, Integer.highestOneBit(width - 1) << 1);
+	}
+
+	/**
+	 * @param width    the width of the image
+	 * @param maxWidth the width to decode it to fit (0 for its full size)
+	 * @return how many pixels in each direction to take one pixel from (1 to decode every pixel).
+	 */
+	public static int subsampling(int width, int maxWidth) {
+		if (maxWidth <= 0)
+			return 1;
+		return Math.max(1, width / maxWidth);
+	}
+
+	/**
+	 * Decode an image, subsampling it if it is at least twice as wide as {@code maxWidth}.  The stream isn't closed.
+	 *
+	 * @param in       the encoded image
+	 * @param maxWidth the width the image will be shown at most (0 to decode it at full size)
+	 * @return the image, or {@code null} if it isn't in a format that can be decoded.
+	 * @throws IOException if the image can't be read.
+	 */
+	public static BufferedImage decode(InputStream in, int maxWidth) throws IOException {
+		return decode(in, maxWidth, null);
+	}
+
+	/**
+	 * Decode an image (as {@link #decode(InputStream, int)} does), reporting its progress as it is decoded.
+	 *
+	 * @param in       the encoded image
+	 * @param maxWidth the width the image will be shown at most (0 to decode it at full size)
+	 * @param listener is handed the image as soon as its size is known, and told as its pixels arrive (may be
+	 *                 {@code null})
+	 * @return the image (the one given to {@code listener}), or {@code null} if it isn't in a format that can be
+	 * decoded.
+	 * @throws IOException if the image can't be read.
+	 */
+	public static BufferedImage decode(InputStream in, int maxWidth, final Listener listener) throws IOException {
+
+		// decode straight from the stream, without ImageIO's temporary-file cache
+		ImageInputStream stream = new MemoryCacheImageInputStream(in);
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext())
+				return null;
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(stream, true, true);
+
+				// the size comes from the header, before any pixels are decoded
+				int width = reader.getWidth(0);
+				int period = subsampling(width, maxWidth);
+				ImageReadParam param = reader.getDefaultReadParam();
+				if (period > 1)
+					param.setSourceSubsampling(period, period, 0, 0);
+				Iterator<ImageTypeSpecifier> types = listener == null ? null : reader.getImageTypes(0);
+				if (types == null || !types.hasNext()) {
+					BufferedImage image = reader.read(0, param);
+
+					// (a reader that can't say what it decodes into can't be watched:  the listener gets it whole)
+					if (listener != null && image != null) {
+						listener.started(image);
+						listener.updated(image);
+					}
+					return image;
+				}
+
+				// decode into an image the listener already has, so it sees each pass as it is filled in
+				final BufferedImage image = types.next().createBufferedImage((width + period - 1) / period,
+						(reader.getHeight(0) + period - 1) / period);
+				param.setDestination(image);
+				reader.addIIOReadUpdateListener(new IIOReadUpdateListener() {
+					@Override
+					public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass,
+							int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+					}
+
+					@Override
+					public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY,
+							int width, int height, int periodX, int periodY, int[] bands) {
+						listener.updated(image);
+					}
+
+					@Override
+					public void passComplete(ImageReader source, BufferedImage theImage) {
+						listener.updated(image);
+					}
+
+					@Override
+					public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass,
+							int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+					}
+
+					@Override
+					public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY,
+							int width, int height, int periodX, int periodY, int[] bands) {
+					}
+
+					@Override
+					public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+					}
+				});
+				listener.started(image);
+				reader.read(0, param);
+				listener.updated(image);
+				return image;
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			stream.close();
+		}
+	}
+}
@@ -0,0 +1,141 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+public class ImageDecoderTest {
+
+	// An encoded image with a red left half and a blue right half.
+	private static byte[] encode(int width, int height, String format) throws IOException {
+		return encode(width, height, format, false);
+	}
+
+	// (progressive JPEGs and interlaced PNGs are decoded in several passes)
+	private static byte[] encode(int width, int height, String format, boolean progressive) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.RED);
+		g.fillRect(0, 0, width / 2, height);
+		g.setColor(Color.BLUE);
+		g.fillRect(width / 2, 0, width - width / 2, height);
+		g.dispose();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+		ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+		try {
+			writer.setOutput(stream);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+			stream.close();
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void roundsWidthsUpToPowersOfTwo() {
+		Assert.assertEquals(0, ImageDecoder.bucket(0));
+		Assert.assertEquals(64, ImageDecoder.bucket(1));
+		Assert.assertEquals(1024, ImageDecoder.bucket(800));
+		Assert.assertEquals(1024, ImageDecoder.bucket(1024));
+		Assert.assertEquals(2048, ImageDecoder.bucket(1025));
+	}
+
+	@Test
+	public void subsamplesOnlyImagesAtLeastTwiceTooWide() {
+		Assert.assertEquals(1, ImageDecoder.subsampling(4000, 0));
+		Assert.assertEquals(1, ImageDecoder.subsampling(500, 1024));
+		Assert.assertEquals(1, ImageDecoder.subsampling(2000, 1024));
+		Assert.assertEquals(3, ImageDecoder.subsampling(4000, 1024));
+	}
+
+	@Test
+	public void decodesWideImagesNoWiderThanNeeded() throws IOException {
+		for (String format : new String[]{"jpeg", "png"}) {
+			BufferedImage image = ImageDecoder.decode(new ByteArrayInputStream(encode(3000, 1500, format)), 1000);
+			Assert.assertEquals(format, 1000, image.getWidth());
+			Assert.assertEquals(format, 500, image.getHeight());
+
+			// it is the same picture, just smaller
+			Assert.assertTrue(format, (image.getRGB(100, 250) >> 16 & 0xff) > 0xc0);
+			Assert.assertTrue(format, (image.getRGB(900, 250) & 0xff) > 0xc0);
+		}
+	}
+
+	@Test
+	public void decodesSmallImagesAndFullSizeRequestsWhole() throws IOException {
+		Assert.assertEquals(600, ImageDecoder.decode(new ByteArrayInputStream(encode(600, 100, "png")), 1024)
+				.getWidth());
+		Assert.assertEquals(3000, ImageDecoder.decode(new ByteArrayInputStream(encode(3000, 100, "png")), 0)
+				.getWidth());
+	}
+
+	// Records what the decoder reports.
+	private static class Progress implements ImageDecoder.Listener {
+		BufferedImage started;
+		int updates = 0;
+		boolean updatedBeforeStarting = false;
+
+		@Override
+		public void started(BufferedImage image) {
+			started = image;
+		}
+
+		@Override
+		public void updated(BufferedImage image) {
+			if (image != started)
+				updatedBeforeStarting = true;
+			updates++;
+		}
+	}
+
+	@Test
+	public void handsOverTheImageBeforeDecodingIt() throws IOException {
+		for (String format : new String[]{"jpeg", "png"}) {
+			Progress progress = new Progress();
+			BufferedImage image = ImageDecoder.decode(new ByteArrayInputStream(encode(3000, 1500, format, true)),
+					1000, progress);
+			Assert.assertSame(format, progress.started, image);
+			Assert.assertEquals(format, 1000, image.getWidth());
+			Assert.assertEquals(format, 500, image.getHeight());
+			Assert.assertFalse(format, progress.updatedBeforeStarting);
+
+			// each pass (at least) is reported, and the last one is the finished image
+			Assert.assertTrue(format + " updates: " + progress.updates, progress.updates > 2);
+			Assert.assertTrue(format, (image.getRGB(900, 250) & 0xff) > 0xc0);
+		}
+	}
+
+	@Test
+	public void subsamplesImagesThatDontDivideEvenly() throws IOException {
+		Progress progress = new Progress();
+		BufferedImage image = ImageDecoder.decode(new ByteArrayInputStream(encode(3001, 1001, "png")), 1000,
+				progress);
+		Assert.assertEquals(1001, image.getWidth());
+		Assert.assertEquals(334, image.getHeight());
+		Assert.assertTrue((image.getRGB(1000, 333) & 0xff) > 0xc0);
+	}
+
+	@Test
+	public void returnsNullForWhatIsntAnImage() throws IOException {
+		byte[] text = "not an image".getBytes("ISO-8859-1");
+		Assert.assertNull(ImageDecoder.decode(new ByteArrayInputStream(text), 1024));
+		Assert.assertNull(ImageDecoder.decode(new ByteArrayInputStream(text), 0));
+		Progress progress = new Progress();
+		Assert.assertNull(ImageDecoder.decode(new ByteArrayInputStream(text), 1024, progress));
+		Assert.assertNull(progress.started);
+	}
+}
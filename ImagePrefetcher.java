@@ -0,0 +1,194 @@
+import java.awt.Image;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Fetches all of a document's images at once, as soon as the document arrives, instead of one at a time as
+ * {@link Display} comes across them while painting.  Each host's images are requested down one pipelined
+ * connection (see {@link Pipeline}), and different hosts load in parallel, so the page is complete after about one
+ * round trip per host plus the time to transfer the images, rather than a round trip per image.
+ * <p/>
+ * The images go through an {@link ImageCache}, so an image that is already cached, or already being loaded (e.g.,
+ * by a paint that got there first), isn't requested again.  An image that is in the disk cache is loaded from
+ * there instead, with a request of its own (so that a stale one can be revalidated).
+ */
+public class ImagePrefetcher {
+
+	/**
+	 * Called (on a loader thread) as each image finishes loading.
+	 */
+	public static interface Listener {
+		void imageLoaded(MyURL url, Image image);
+	}
+
+	/**
+	 * Turns responses into images.
+	 */
+	public static interface Loader {
+
+		/**
+		 * Decode an image from its response.
+		 *
+		 * @param url      the image's URL
+		 * @param response the response, as it arrives on a pipelined connection
+		 * @return the image, or {@code null} if the response isn't one.
+		 */
+		Image decode(MyURL url, WebTransactionClient response) throws IOException;
+
+		/**
+		 * Load an image with a request of its own, the way it would be if it hadn't been prefetched.
+		 *
+		 * @param url the image's URL
+		 * @return the image, or {@code null} if it couldn't be loaded.
+		 */
+		Image load(MyURL url);
+	}
+
+	private final ImageCache cache;
+	private final ResponseCache diskCache;
+	private final Pipeline pipeline;
+
+	/**
+	 * @param cache     where the images go (and where images that are already loading are found)
+	 * @param pool      where the pipelined connections come from
+	 * @param diskCache the browser's disk cache, or {@code null} if it doesn't have one
+	 */
+	public ImagePrefetcher(ImageCache cache, ConnectionPool pool, ResponseCache diskCache) {
+		this.cache = cache;
+		this.diskCache = diskCache;
+		this.pipeline = new Pipeline(pool);
+		pipeline.setCache(diskCache);
+	}
+
+	/**
+	 * Find the images in a document.
+	 *
+	 * @param document the document
+	 * @param base     the URL of the document, which relative image URLs are resolved against
+	 * @return the URL of each image, once each, in the order they appear.
+	 */
+	public static List<MyURL> findImages(Document document, MyURL base) {
+		Set<MyURL> images = new LinkedHashSet<MyURL>();
+		for (String image : document.images()) {
+			try {
+				images.add(new MyURL(image, base));
+			} catch (RuntimeException e) {
+				// there is nothing to prefetch:  a malformed URL is laid out as a placeholder
+			}
+		}
+		return new ArrayList<MyURL>(images);
+	}
+
+	/**
+	 * Start loading {@code urls} into the image cache.  Returns right away;  {@code listener} hears about each image
+	 * this prefetch loads as it arrives ({@code null} if it couldn't be loaded).
+	 * <p/>
+	 * The loads are the returned futures, which the image cache is waiting on.  Cancelling one abandons its image
+	 * (so it isn't remembered as broken);  the caller should do that if {@code executor} drops its tasks.
+	 *
+	 * @param urls     the images to load
+	 * @param maxWidth the width the images are decoded to fit (0 for their full size)
+	 * @param executor runs the loads
+	 * @param loader   decodes (or loads) each image
+	 * @param listener told about each image
+	 * @return the loads this prefetch started (one for each image that wasn't cached or loading already).
+	 */
+	public List<CompletableFuture<Image>> prefetch(List<MyURL> urls, int maxWidth, Executor executor,
+			final Loader loader, final Listener listener) {
+
+		// take over the images that nobody has loaded (or started to load) yet
+		final Map<MyURL, CompletableFuture<Image>> loads = new LinkedHashMap<MyURL, CompletableFuture<Image>>();
+		for (MyURL url : urls) {
+			cache.getImageAsync(url, maxWidth, new ImageCache.AsyncImageLoader() {
+				@Override
+				public CompletableFuture<Image> loadImage(MyURL url) {
+					CompletableFuture<Image> load = new CompletableFuture<Image>();
+					loads.put(url, load);
+					return load;
+				}
+			});
+		}
+
+		// one pipeline per host;  the images in the disk cache are each loaded on their own
+		Map<String, List<MyURL>> hosts = new LinkedHashMap<String, List<MyURL>>();
+		for (final MyURL url : loads.keySet()) {
+			if (diskCache != null && diskCache.lookup(url) != null) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							arrived(url, loads.get(url), loader.load(url), listener);
+						} catch (RuntimeException e) {
+							loads.get(url).completeExceptionally(e);
+						}
+					}
+				});
+				continue;
+			}
+			String host = url.domainName() + ":" + url.port();
+			List<MyURL> same = hosts.get(host);
+			if (same == null) {
+				same = new ArrayList<MyURL>();
+				hosts.put(host, same);
+			}
+			same.add(url);
+		}
+		for (final List<MyURL> same : hosts.values()) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					fetch(same, loads, loader, listener);
+				}
+			});
+		}
+		return new ArrayList<CompletableFuture<Image>>(loads.values());
+	}
+
+	// Fetch one host's images down a pipelined connection.  The images that don't arrive are finished off, so the
+	// image cache isn't left waiting for them:  as broken images if the server let us down, or as abandoned ones if
+	// the load was interrupted or cancelled.
+	private void fetch(List<MyURL> urls, final Map<MyURL, CompletableFuture<Image>> loads, final Loader loader,
+			final Listener listener) {
+		boolean finished = false;
+		try {
+			pipeline.fetch(urls, new Pipeline.Handler() {
+				@Override
+				public void handle(MyURL url, WebTransactionClient response) throws IOException {
+					Image image;
+					try {
+						image = loader.decode(url, response);
+					} catch (IOException e) {
+						image = null;
+					}
+					arrived(url, loads.get(url), image, listener);
+				}
+			});
+			finished = true;
+		} catch (IOException e) {
+			finished = true;
+		} finally {
+			boolean abandoned = !finished || Thread.currentThread().isInterrupted();
+			for (MyURL url : urls) {
+				CompletableFuture<Image> load = loads.get(url);
+				if (load.isDone())
+					continue;
+				if (abandoned)
+					load.cancel(false);
+				else
+					arrived(url, load, null, listener);
+			}
+		}
+	}
+
+	private static void arrived(MyURL url, CompletableFuture<Image> load, Image image, Listener listener) {
+		load.complete(image);
+		listener.imageLoaded(url, image);
+	}
+}
@@ -0,0 +1,139 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// These tests serve the sampleInput directory, so they must be run from the top of the project.
+
+
+public class ImagePrefetcherTest {
+
+	private static final String[] IMAGES = {"Images/logo1.png", "Images/logo2.jpeg", "Images/gvsu3.gif"};
+
+	// runs the loads on the calling thread, so each prefetch is over when it returns
+	private static final Executor NOW = new Executor() {
+		@Override
+		public void execute(Runnable task) {
+			task.run();
+		}
+	};
+
+	private LocalServer server;
+	private ConnectionPool pool;
+	private File directory;
+	private ResponseCache diskCache;
+
+	private final AtomicInteger loads = new AtomicInteger();
+	private final List<MyURL> arrived = Collections.synchronizedList(new ArrayList<MyURL>());
+
+	@Before
+	public void setUp() throws IOException {
+		server = new LocalServer(new File("sampleInput"));
+		pool = new ConnectionPool();
+		directory = Files.createTempDirectory("cache").toFile();
+		diskCache = new ResponseCache(directory, ResponseCache.DEFAULT_MAX_BYTES);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		pool.close();
+		server.close();
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	private List<MyURL> urls(String... paths) {
+		List<MyURL> urls = new ArrayList<MyURL>();
+		for (String path : paths)
+			urls.add(server.url(path));
+		return urls;
+	}
+
+	private List<CompletableFuture<Image>> prefetch(ImageCache cache, List<MyURL> urls) {
+		ImagePrefetcher prefetcher = new ImagePrefetcher(cache, pool, diskCache);
+		return prefetcher.prefetch(urls, 0, NOW, new ImagePrefetcher.Loader() {
+			@Override
+			public Image decode(MyURL url, WebTransactionClient response) throws IOException {
+				return response.getImage();
+			}
+
+			@Override
+			public Image load(MyURL url) {
+				loads.incrementAndGet();
+				try {
+					return new WebTransactionClient(url, pool, diskCache).getImage();
+				} catch (IOException e) {
+					return null;
+				}
+			}
+		}, new ImagePrefetcher.Listener() {
+			@Override
+			public void imageLoaded(MyURL url, Image image) {
+				arrived.add(url);
+			}
+		});
+	}
+
+	@Test(timeout = 10000)
+	public void pipelinesEachHostsImages() {
+		ImageCache cache = new ImageCache();
+		List<MyURL> urls = urls(IMAGES);
+		urls.add(server.url("Images/noSuchImage.png"));
+		Assert.assertEquals(4, prefetch(cache, urls).size());
+
+		for (String image : IMAGES)
+			Assert.assertNotNull("Not cached: " + image, cache.getImage(server.url(image)));
+		Assert.assertNull(cache.getImage(server.url("Images/noSuchImage.png")));
+		Assert.assertEquals(urls, arrived);
+		Assert.assertEquals("Connections accepted", 1, server.connections());
+		Assert.assertEquals("Loaded on their own", 0, loads.get());
+	}
+
+	@Test(timeout = 10000)
+	public void imagesAlreadyLoadingArentRequestedAgain() {
+		ImageCache cache = new ImageCache();
+		cache.putImage(server.url(IMAGES[0]), new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB));
+		final CompletableFuture<Image> painting = new CompletableFuture<Image>();
+		cache.getImageAsync(server.url(IMAGES[1]), new ImageCache.AsyncImageLoader() {
+			@Override
+			public CompletableFuture<Image> loadImage(MyURL url) {
+				return painting;
+			}
+		});
+
+		Assert.assertEquals(1, prefetch(cache, urls(IMAGES)).size());
+		Assert.assertEquals(Arrays.asList(server.url(IMAGES[2])), arrived);
+		Assert.assertEquals("Requests", 1, server.requests());
+		Assert.assertTrue(cache.isLoading(server.url(IMAGES[1])));
+		painting.complete(null);
+	}
+
+	// Pipelined images are stored in the disk cache, and once they are there they come from it.
+	@Test(timeout = 10000)
+	public void imagesInTheDiskCacheAreLoadedFromIt() {
+		server.setCacheControl("max-age=600");
+		prefetch(new ImageCache(), urls(IMAGES));
+		Assert.assertEquals("Requests", IMAGES.length, server.requests());
+
+		ImageCache cache = new ImageCache();
+		prefetch(cache, urls(IMAGES));
+		Assert.assertEquals("Loaded on their own", IMAGES.length, loads.get());
+		Assert.assertEquals("Requests", IMAGES.length, server.requests());
+		for (String image : IMAGES)
+			Assert.assertNotNull("Not cached: " + image, cache.getImage(server.url(image)));
+	}
+}
@@ -0,0 +1,274 @@
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The position of every word and image of a {@link Document} when it is displayed at a given width.
+ * <p/>
+ * A layout is computed once per document, width and font, and then used for every paint:  painting only has to
+ * find the rows that intersect the clip rectangle (a binary search) and draw them, so scrolling a huge document
+ * costs about the same as scrolling a small one.
+ */
+public class Layout {
+
+	// The size of the box held for an image whose size isn't known yet (it hasn't arrived, or it is broken).
+	public static final int PLACEHOLDER_SIZE = 48;
+
+	/**
+	 * Supplies images (or {@code null} if an image isn't available yet) while laying out and painting.  An image
+	 * that is still being decoded may be returned:  once its size is known, the page is laid out around it.
+	 */
+	public static interface ImageSource {
+		Image getImage(String url);
+	}
+
+	/**
+	 * One word or image, placed on the page.
+	 */
+	public static final class Box {
+		private final Document.Word word;
+		private final int x;
+		private final int y;       // the baseline for text;  the top edge for an image
+		private final int width;   // for text, the width of the word itself (without the space after it)
+		private final int height;
+
+		private Box(Document.Word word, int x, int y, int width, int height) {
+			this.word = word;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+
+		public Document.Word word() {
+			return word;
+		}
+
+		public int x() {
+			return x;
+		}
+
+		public int y() {
+			return y;
+		}
+
+		public int width() {
+			return width;
+		}
+
+		public int height() {
+			return height;
+		}
+	}
+
+	/**
+	 * The boxes that share one baseline.
+	 */
+	public static final class Row {
+		private final List<Box> boxes = new ArrayList<Box>();
+		private int top;
+		private int bottom;
+
+		public List<Box> boxes() {
+			return boxes;
+		}
+
+		public int top() {
+			return top;
+		}
+
+		public int bottom() {
+			return bottom;
+		}
+	}
+
+	private final Document document;
+	private final int width;
+	private final Font font;
+	private final List<Row> rows = new ArrayList<Row>();
+	private int[] reach;  // reach[i] is the lowest bottom edge of rows 0..i, so it never decreases
+	private int height;
+
+	// The area of each word of each link, in the same (top to bottom) order as the rows.
+	private final List<Rectangle> linkAreas = new ArrayList<Rectangle>();
+	private final List<String> linkUrls = new ArrayList<String>();
+	private int[] linkReach;  // like reach, but for the link areas
+
+	private Layout(Document document, int width, Font font) {
+		this.document = document;
+		this.width = width;
+		this.font = font;
+	}
+
+	/**
+	 * Lay out a document.
+	 *
+	 * @param document the document
+	 * @param width    the width of the panel
+	 * @param margin   the space to leave around the edge of the panel
+	 * @param fonts    the fonts (the plain font and its bold and italic variations) and the widths of words
+	 * @param images   provides each image, to find its size
+	 * @return the layout.
+	 */
+	public static Layout compute(Document document, int width, int margin, FontCache fonts, ImageSource images) {
+		Layout layout = new Layout(document, width, fonts.base());
+
+		FontMetrics metrics = fonts.metrics(Font.PLAIN);
+		int line_height = metrics.getHeight();
+		int descent = metrics.getDescent();
+		int panel_width = width - margin * 2;
+		int x = margin;
+		int y = line_height;
+
+		Row row = layout.newRow(y, line_height, descent);
+		for (List<Document.Word> line : document.lines()) {
+			for (Document.Word word : line) {
+
+				// an image hangs from the current baseline and pushes the following text down.  Until its size is
+				// known it is a placeholder, so that the text can be read (and clicked) before the images arrive.
+				if (word.isImage()) {
+					Image image = images.getImage(word.image());
+					int imageWidth = image == null ? -1 : image.getWidth(null);
+					int imageHeight = image == null ? -1 : image.getHeight(null);
+					if (imageWidth < 0 || imageHeight < 0) {
+						imageWidth = PLACEHOLDER_SIZE;
+						imageHeight = PLACEHOLDER_SIZE;
+					}
+
+					// an image wider than the page is shrunk to fit (it has usually been decoded not much wider)
+					if (imageWidth > panel_width && panel_width > 0) {
+						imageHeight = (int) ((long) imageHeight * panel_width / imageWidth);
+						imageWidth = panel_width;
+					}
+					row.boxes.add(new Box(word, x, y - line_height, imageWidth, imageHeight));
+					row.bottom = Math.max(row.bottom, y - line_height + imageHeight);
+					y += imageHeight;
+					row = layout.newRow(y, line_height, descent);
+					continue;
+				}
+
+				int word_width = fonts.widthWithSpace(word.text(), word.style());
+
+				// If there isn't room for this word, go to the next line
+				if (x + word_width > panel_width) {
+					x = margin;
+					y += line_height;
+					row = layout.newRow(y, line_height, descent);
+				}
+				Box box = new Box(word, x, y, fonts.width(word.text(), word.style()), line_height);
+				row.boxes.add(box);
+				if (word.link() != null) {
+					layout.linkAreas.add(new Rectangle(box.x, box.y - box.height, box.width, box.height));
+					layout.linkUrls.add(word.link());
+				}
+				x += word_width;
+			}
+
+			// move to the next line
+			x = margin;
+			y += line_height;
+			row = layout.newRow(y, line_height, descent);
+		}
+		layout.height = y + line_height + 2 * margin;
+		layout.finish();
+		return layout;
+	}
+
+	// Start a new row at baseline y, reusing the current row if nothing was put in it.
+	private Row newRow(int y, int line_height, int descent) {
+		Row row = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+		if (row == null || !row.boxes.isEmpty()) {
+			row = new Row();
+			rows.add(row);
+		}
+		row.top = y - line_height;
+		row.bottom = y + descent;
+		return row;
+	}
+
+	private void finish() {
+		if (!rows.isEmpty() && rows.get(rows.size() - 1).boxes.isEmpty())
+			rows.remove(rows.size() - 1);
+		reach = new int[rows.size()];
+		int lowest = Integer.MIN_VALUE;
+		for (int i = 0; i < rows.size(); i++) {
+			lowest = Math.max(lowest, rows.get(i).bottom);
+			reach[i] = lowest;
+		}
+		linkReach = new int[linkAreas.size()];
+		lowest = Integer.MIN_VALUE;
+		for (int i = 0; i < linkAreas.size(); i++) {
+			Rectangle area = linkAreas.get(i);
+			lowest = Math.max(lowest, area.y + area.height);
+			linkReach[i] = lowest;
+		}
+	}
+
+	// The index of the first entry of a never-decreasing array that is greater than or equal to value.
+	private static int search(int[] sorted, int value) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sorted[middle] < value)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * @param document the document to display
+	 * @param width    the width of the panel
+	 * @param font     the font of the panel
+	 * @return true if this layout is for that document, width and font.
+	 */
+	public boolean isFor(Document document, int width, Font font) {
+		return this.document == document && this.width == width && this.font.equals(font);
+	}
+
+	/**
+	 * @return all the rows, from top to bottom.
+	 */
+	public List<Row> rows() {
+		return rows;
+	}
+
+	/**
+	 * @param top the top of the visible area
+	 * @return the index of the first row that reaches down to {@code top} or below (or the number of rows if
+	 * there is none).
+	 */
+	public int firstRowBelow(int top) {
+		return search(reach, top);
+	}
+
+	/**
+	 * Find the link at a point.  Takes logarithmic time in the number of links (plus the links on that row).
+	 *
+	 * @param point a point on the panel
+	 * @return the (possibly relative) URL of the link at {@code point}, or {@code null} if there isn't one.
+	 */
+	public String linkAt(Point point) {
+		for (int i = search(linkReach, point.y + 1); i < linkAreas.size(); i++) {
+			Rectangle area = linkAreas.get(i);
+			if (area.y > point.y)
+				break;
+			if (area.contains(point))
+				return linkUrls.get(i);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the height the panel needs to show the whole document.
+	 */
+	public int height() {
+		return height;
+	}
+}
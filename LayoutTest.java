@@ -0,0 +1,148 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.swing.JPanel;
+
+public class LayoutTest {
+
+	private static final int MARGIN = 10;
+
+	private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+	private final FontCache fonts = new FontCache(font, new JPanel());
+
+	private final Layout.ImageSource noImages = new Layout.ImageSource() {
+		@Override
+		public Image getImage(String url) {
+			return null;
+		}
+	};
+
+	private Layout layout(List<String> text, int width, Layout.ImageSource images) {
+		return Layout.compute(Document.parse(text), width, MARGIN, fonts, images);
+	}
+
+	@Test
+	public void oneRowPerLineWhenThereIsRoom() {
+		Layout layout = layout(Arrays.asList("one two", "three"), 1000, noImages);
+		Assert.assertEquals(2, layout.rows().size());
+		Assert.assertEquals(2, layout.rows().get(0).boxes().size());
+		int lineHeight = fonts.metrics(Font.PLAIN).getHeight();
+		Assert.assertEquals(lineHeight, layout.rows().get(0).boxes().get(0).y());
+		Assert.assertEquals(2 * lineHeight, layout.rows().get(1).boxes().get(0).y());
+	}
+
+	@Test
+	public void wrapsWordsThatDontFit() {
+		Layout layout = layout(Arrays.asList("aaaa bbbb cccc dddd"), 60, noImages);
+		Assert.assertTrue(layout.rows().size() > 1);
+		for (Layout.Row row : layout.rows())
+			for (Layout.Box box : row.boxes())
+				Assert.assertEquals(MARGIN, box.x());
+	}
+
+	@Test
+	public void imagesPushTheFollowingTextDown() {
+		final Image image = new BufferedImage(30, 100, BufferedImage.TYPE_INT_RGB);
+		Layout layout = layout(Arrays.asList("<<pic>> after"), 1000, new Layout.ImageSource() {
+			@Override
+			public Image getImage(String url) {
+				return image;
+			}
+		});
+		Assert.assertEquals(2, layout.rows().size());
+		Layout.Box picture = layout.rows().get(0).boxes().get(0);
+		Layout.Box after = layout.rows().get(1).boxes().get(0);
+		Assert.assertEquals(30, picture.width());
+		Assert.assertEquals(100, picture.height());
+		Assert.assertTrue(after.y() > picture.y() + picture.height());
+		Assert.assertTrue(layout.height() > after.y());
+	}
+
+	@Test
+	public void imagesThatHaventArrivedHoldAPlaceholder() {
+		Layout layout = layout(Arrays.asList("<<pic>> after"), 1000, noImages);
+		Assert.assertEquals(2, layout.rows().size());
+		Layout.Box picture = layout.rows().get(0).boxes().get(0);
+		Assert.assertEquals(Layout.PLACEHOLDER_SIZE, picture.width());
+		Assert.assertEquals(Layout.PLACEHOLDER_SIZE, picture.height());
+		Assert.assertTrue(layout.rows().get(1).boxes().get(0).y() > picture.y() + picture.height());
+
+		// so does an image that doesn't know its size yet
+		final Image unknown = new BufferedImage(30, 100, BufferedImage.TYPE_INT_RGB) {
+			@Override
+			public int getWidth(ImageObserver observer) {
+				return -1;
+			}
+		};
+		layout = layout(Arrays.asList("<<pic>> after"), 1000, new Layout.ImageSource() {
+			@Override
+			public Image getImage(String url) {
+				return unknown;
+			}
+		});
+		Assert.assertEquals(Layout.PLACEHOLDER_SIZE, layout.rows().get(0).boxes().get(0).width());
+	}
+
+	@Test
+	public void shrinksImagesWiderThanThePage() {
+		final Image image = new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB);
+		Layout layout = layout(Arrays.asList("<<pic>>"), 400 + 2 * MARGIN, new Layout.ImageSource() {
+			@Override
+			public Image getImage(String url) {
+				return image;
+			}
+		});
+		Layout.Box picture = layout.rows().get(0).boxes().get(0);
+		Assert.assertEquals(400, picture.width());
+		Assert.assertEquals(200, picture.height());
+	}
+
+	@Test
+	public void findsTheFirstVisibleRow() {
+		List<String> text = new ArrayList<String>();
+		for (int i = 0; i < 50000; i++)
+			text.add("line " + i);
+		Layout layout = layout(text, 1000, noImages);
+		Assert.assertEquals(50000, layout.rows().size());
+		Assert.assertEquals(0, layout.firstRowBelow(Integer.MIN_VALUE));
+		Assert.assertEquals(50000, layout.firstRowBelow(Integer.MAX_VALUE));
+
+		Layout.Row row = layout.rows().get(30000);
+		int first = layout.firstRowBelow(row.bottom());
+		Assert.assertEquals(30000, first);
+		Assert.assertTrue(layout.rows().get(first - 1).bottom() < row.bottom());
+	}
+
+	@Test
+	public void knowsWhatItIsFor() {
+		Document document = Document.parse(Arrays.asList("text"));
+		Layout layout = Layout.compute(document, 500, MARGIN, fonts, noImages);
+		Assert.assertTrue(layout.isFor(document, 500, font));
+		Assert.assertFalse(layout.isFor(document, 501, font));
+		Assert.assertFalse(layout.isFor(Document.parse(Arrays.asList("text")), 500, font));
+	}
+
+	@Test
+	public void findsLinksUnderAPoint() {
+		List<String> text = new ArrayList<String>();
+		for (int i = 0; i < 5000; i++)
+			text.add("plain [[page" + i + ".txt link " + i + "]] after");
+		Layout layout = layout(text, 1000, noImages);
+
+		Layout.Row row = layout.rows().get(1234);
+		Layout.Box plain = row.boxes().get(0);
+		Layout.Box link = row.boxes().get(1);
+		Layout.Box linkEnd = row.boxes().get(2);
+		Assert.assertEquals("page1234.txt", layout.linkAt(new Point(link.x() + 1, link.y() - 2)));
+		Assert.assertEquals("page1234.txt", layout.linkAt(new Point(linkEnd.x() + 1, linkEnd.y() - 2)));
+		Assert.assertNull(layout.linkAt(new Point(plain.x() + 1, plain.y() - 2)));
+		Assert.assertNull(layout.linkAt(new Point(link.x() + 1, -5)));
+		Assert.assertNull(layout.linkAt(new Point(link.x() + 1, layout.height() + 100)));
+	}
+}
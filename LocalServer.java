@@ -0,0 +1,456 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A small HTTP/1.1 server that serves the files under one directory (e.g., {@code sampleInput}) on localhost, so
+ * that the browser and its tests and benchmarks can run without a network, and at a repeatable speed.
+ * <p/>
+ * The server can pretend to be far away or on a slow link:  every response can be delayed ({@code latency}, from
+ * when the request arrived, so pipelined requests are delayed together, as over a real network link), and
+ * sent no faster than a given number of bytes per second.  It can also keep connections open or close them after
+ * every response, send bodies chunked instead of with a Content-Length, and compress bodies with gzip or deflate
+ * when the client accepts them.  Requests may be pipelined.  Each file has an ETag, and a request whose
+ * If-None-Match matches it gets "304 Not Modified".
+ * <p/>
+ * The settings may be changed while the server is running;  they apply to the next response.  Run it on its own
+ * with
+ * <pre>
+ *   java LocalServer [directory [port [latency-millis [bytes-per-second]]]]
+ * </pre>
+ */
+public class LocalServer implements Closeable {
+
+	private static final int CHUNK_SIZE = 4096;     // for chunked bodies
+	private static final int THROTTLE_SIZE = 1024;  // throttled bytes are written this many at a time
+
+	private final File root;
+	private final ServerSocket server;
+	private final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "local-server");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private volatile long latency = 0;         // milliseconds between a request arriving and its response
+	private volatile long bytesPerSecond = 0;  // 0 for as fast as possible
+	private volatile boolean keepAlive = true;
+	private volatile int maxRequestsPerConnection = 0;  // 0 for no limit
+	private volatile boolean chunked = false;
+	private volatile boolean compress = false;
+	private volatile String cacheControl = null;
+
+	private final Set<Socket> open = Collections.synchronizedSet(new HashSet<Socket>());
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicInteger requests = new AtomicInteger();
+
+	/**
+	 * Start serving {@code root} on a free port.
+	 *
+	 * @param root the directory whose files are served
+	 * @throws IOException if the server can't listen
+	 */
+	public LocalServer(File root) throws IOException {
+		this(root, 0);
+	}
+
+	/**
+	 * Start serving {@code root}.
+	 *
+	 * @param root the directory whose files are served
+	 * @param port the port to listen on (0 for any free port)
+	 * @throws IOException if the server can't listen
+	 */
+	public LocalServer(File root, int port) throws IOException {
+		this.root = root.getCanonicalFile();
+		this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		});
+	}
+
+	private void accept() {
+		try {
+			while (true) {
+				final Socket socket = server.accept();
+				connections.incrementAndGet();
+				open.add(socket);
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				});
+			}
+		} catch (IOException e) {
+			// the server was closed
+		}
+	}
+
+	// Answer the requests on one connection, in order, until either side closes it.
+	private void serve(Socket socket) {
+		try {
+			BufferedReader in = new BufferedReader(
+					new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+
+			// each response goes out in as few packets as possible (and nothing waits on Nagle's algorithm)
+			socket.setTcpNoDelay(true);
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream(), CHUNK_SIZE * 4);
+			String requestLine;
+			long arrived = 0;
+			boolean pipelined = false;
+			int answered = 0;
+			while ((requestLine = in.readLine()) != null) {
+				if (requestLine.isEmpty())
+					continue;
+				requests.incrementAndGet();
+
+				// requests that were already waiting behind the previous one (pipelined) arrived with it
+				if (!pipelined)
+					arrived = System.nanoTime();
+
+				String ifNoneMatch = null;
+				String acceptEncoding = "";
+				boolean clientCloses = false;
+				String line;
+				while ((line = in.readLine()) != null && !line.isEmpty()) {
+					int colon = line.indexOf(':');
+					if (colon == -1)
+						continue;
+					String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+					String value = line.substring(colon + 1).trim();
+					if (name.equals("if-none-match"))
+						ifNoneMatch = value;
+					else if (name.equals("accept-encoding"))
+						acceptEncoding = value.toLowerCase(Locale.ROOT);
+					else if (name.equals("connection"))
+						clientCloses = value.equalsIgnoreCase("close");
+				}
+
+				pipelined = in.ready();
+
+				// the latency is from the request's arrival, so pipelined requests wait for it together
+				long wait = arrived + latency * 1000000 - System.nanoTime();
+				if (wait > 0)
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+
+				int limit = maxRequestsPerConnection;
+				boolean close = clientCloses || !keepAlive || (limit > 0 && ++answered >= limit);
+				respond(requestLine, ifNoneMatch, acceptEncoding, close, out);
+				if (close) {
+					lingeringClose(socket);
+					break;
+				}
+			}
+		} catch (IOException e) {
+			// the client went away
+		} catch (InterruptedException e) {
+			// the server was closed
+		} finally {
+			open.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing more to do
+			}
+		}
+	}
+
+	// Close our side, but wait (briefly) for the client to close its side before closing the socket.  Closing
+	// with unread requests in the socket would reset the connection, and the client could lose the last response.
+	private static void lingeringClose(Socket socket) throws IOException {
+		socket.shutdownOutput();
+		socket.setSoTimeout(2000);
+		InputStream in = socket.getInputStream();
+		byte[] discard = new byte[4096];
+		while (in.read(discard) != -1) {
+			// skip requests that won't be answered
+		}
+	}
+
+	private void respond(String requestLine, String ifNoneMatch, String acceptEncoding, boolean close,
+			OutputStream out) throws IOException, InterruptedException {
+		String[] parts = requestLine.split(" ");
+		String method = parts[0];
+		File file = parts.length < 2 ? null : find(parts[1]);
+
+		StringBuilder head = new StringBuilder();
+		byte[] body;
+		if (!method.equals("GET") && !method.equals("HEAD")) {
+			head.append("HTTP/1.1 405 Method Not Allowed\r\n");
+			body = new byte[0];
+		} else if (file == null) {
+			String missing = "No such file: " + (parts.length < 2 ? "" : parts[1]) + "\n";
+			head.append("HTTP/1.1 404 Not Found\r\nContent-Type: text/plain\r\n");
+			body = missing.getBytes(StandardCharsets.ISO_8859_1);
+		} else {
+			String etag = "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+			if (etag.equals(ifNoneMatch)) {
+				head.append("HTTP/1.1 304 Not Modified\r\n");
+				body = null;
+			} else {
+				head.append("HTTP/1.1 200 OK\r\nContent-Type: ").append(contentType(file.getName())).append("\r\n");
+				body = Files.readAllBytes(file.toPath());
+			}
+			head.append("ETag: ").append(etag).append("\r\n");
+			head.append("Last-Modified: ").append(httpDate(file.lastModified())).append("\r\n");
+			if (cacheControl != null)
+				head.append("Cache-Control: ").append(cacheControl).append("\r\n");
+
+			// compress only when the client says it can take it
+			if (body != null && compress) {
+				if (accepts(acceptEncoding, "gzip")) {
+					head.append("Content-Encoding: gzip\r\nVary: Accept-Encoding\r\n");
+					body = compress(body, true);
+				} else if (accepts(acceptEncoding, "deflate")) {
+					head.append("Content-Encoding: deflate\r\nVary: Accept-Encoding\r\n");
+					body = compress(body, false);
+				}
+			}
+		}
+		if (close)
+			head.append("Connection: close\r\n");
+
+		// a 304 has no body at all;  a HEAD response describes the body it leaves out
+		boolean chunk = chunked && body != null;
+		if (chunk)
+			head.append("Transfer-Encoding: chunked\r\n");
+		else if (body != null)
+			head.append("Content-Length: ").append(body.length).append("\r\n");
+		head.append("\r\n");
+		write(out, head.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+		if (body != null && method.equals("GET")) {
+			if (chunk) {
+				for (int start = 0; start < body.length; start += CHUNK_SIZE) {
+					int length = Math.min(CHUNK_SIZE, body.length - start);
+					write(out, (Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+					write(out, body, start, length);
+					write(out, "\r\n".getBytes(StandardCharsets.ISO_8859_1));
+				}
+				write(out, "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+			} else {
+				write(out, body, 0, body.length);
+			}
+		}
+		out.flush();
+	}
+
+	// The file a request path names, or null if there isn't one (or the path tries to leave the root).
+	private File find(String path) throws IOException {
+		int query = path.indexOf('?');
+		if (query != -1)
+			path = path.substring(0, query);
+		File file = new File(root, path).getCanonicalFile();
+		if (!file.getPath().startsWith(root.getPath() + File.separator) || !file.isFile())
+			return null;
+		return file;
+	}
+
+	private static boolean accepts(String acceptEncoding, String coding) {
+		for (String accepted : acceptEncoding.split(",")) {
+			String[] parameters = accepted.trim().split(";");
+			if (parameters[0].trim().equals(coding))
+				return parameters.length < 2 || !parameters[1].replace(" ", "").matches("q=0(\\.0*)?");
+		}
+		return false;
+	}
+
+	private static byte[] compress(byte[] body, boolean gzip) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2 + 64);
+		DeflaterOutputStream out = gzip ? new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed);
+		out.write(body);
+		out.close();
+		return compressed.toByteArray();
+	}
+
+	static String contentType(String name) {
+		String lower = name.toLowerCase(Locale.ROOT);
+		if (lower.endsWith(".txt"))
+			return "text/plain";
+		if (lower.endsWith(".html") || lower.endsWith(".htm"))
+			return "text/html";
+		if (lower.endsWith(".png"))
+			return "image/png";
+		if (lower.endsWith(".gif"))
+			return "image/gif";
+		if (lower.endsWith(".jpg") || lower.endsWith(".jpeg"))
+			return "image/jpeg";
+		return "application/octet-stream";
+	}
+
+	private static String httpDate(long time) {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(time));
+	}
+
+	private void write(OutputStream out, byte[] bytes) throws IOException, InterruptedException {
+		write(out, bytes, 0, bytes.length);
+	}
+
+	// Write, no faster than bytesPerSecond (if it is set).
+	private void write(OutputStream out, byte[] bytes, int offset, int length)
+			throws IOException, InterruptedException {
+		long rate = bytesPerSecond;
+		if (rate <= 0) {
+			out.write(bytes, offset, length);
+			return;
+		}
+		long start = System.nanoTime();
+		int written = 0;
+		while (written < length) {
+			int count = Math.min(THROTTLE_SIZE, length - written);
+
+			// wait until sending these bytes too won't go over the rate
+			long due = start + (written + count) * 1000000000L / rate;
+			long wait = due - System.nanoTime();
+			if (wait > 0)
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			out.write(bytes, offset + written, count);
+			out.flush();
+			written += count;
+		}
+	}
+
+	/**
+	 * @param millis how long after a request arrives to send its response (as if the server were that far away)
+	 */
+	public void setLatency(long millis) {
+		latency = millis;
+	}
+
+	/**
+	 * @param rate the most bytes per second to send on each connection (0 for no limit)
+	 */
+	public void setBytesPerSecond(long rate) {
+		bytesPerSecond = rate;
+	}
+
+	/**
+	 * @param keepAlive false to close every connection after one response
+	 */
+	public void setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * @param limit how many requests to answer on a connection before closing it (0 for no limit);  any requests
+	 *              pipelined after the last one are left unanswered
+	 */
+	public void setMaxRequestsPerConnection(int limit) {
+		maxRequestsPerConnection = limit;
+	}
+
+	/**
+	 * @param chunked true to send bodies with Transfer-Encoding: chunked instead of a Content-Length
+	 */
+	public void setChunked(boolean chunked) {
+		this.chunked = chunked;
+	}
+
+	/**
+	 * @param compress true to compress bodies (with gzip, or deflate) for clients that accept it
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	/**
+	 * @param cacheControl the Cache-Control header to send with every file (or null to send none)
+	 */
+	public void setCacheControl(String cacheControl) {
+		this.cacheControl = cacheControl;
+	}
+
+	/**
+	 * @return the port the server is listening on.
+	 */
+	public int port() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * @param path a path, relative to the served directory (e.g., "basic.txt" or "/Images/logo1.png")
+	 * @return the URL of that path on this server.
+	 */
+	public MyURL url(String path) {
+		return new MyURL("http://localhost:" + port() + (path.startsWith("/") ? path : "/" + path));
+	}
+
+	/**
+	 * @return the number of connections accepted so far.
+	 */
+	public int connections() {
+		return connections.get();
+	}
+
+	/**
+	 * @return the number of requests answered (or being answered) so far.
+	 */
+	public int requests() {
+		return requests.get();
+	}
+
+	/**
+	 * Stop listening, and close every connection.
+	 */
+	@Override
+	public void close() throws IOException {
+		server.close();
+		synchronized (open) {
+			for (Socket socket : open)
+				socket.close();
+		}
+		workers.shutdownNow();
+	}
+
+	public static void main(String[] args) throws IOException {
+		File root = new File(args.length > 0 ? args[0] : "sampleInput");
+		LocalServer server = new LocalServer(root, args.length > 1 ? Integer.parseInt(args[1]) : 8371);
+		if (args.length > 2)
+			server.setLatency(Long.parseLong(args[2]));
+		if (args.length > 3)
+			server.setBytesPerSecond(Long.parseLong(args[3]));
+		System.out.println("Serving " + root + " at " + server.url("/"));
+
+		// the worker threads are daemons, so keep the program running
+		while (true) {
+			try {
+				Thread.sleep(Long.MAX_VALUE);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+// These tests serve the sampleInput directory, so they must be run from the top of the project.
+
+
+public class LocalServerTest {
+
+	private LocalServer server;
+	private ConnectionPool pool;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new LocalServer(new File("sampleInput"));
+		pool = new ConnectionPool();
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		pool.close();
+		server.close();
+	}
+
+	private String file(String path) throws IOException {
+		return new String(Files.readAllBytes(new File("sampleInput", path).toPath()), StandardCharsets.ISO_8859_1);
+	}
+
+	// Send a raw request and return everything the server sends back before closing the connection.
+	private byte[] exchange(String request) throws IOException {
+		Socket socket = new Socket("localhost", server.port());
+		try {
+			OutputStream out = socket.getOutputStream();
+			out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+			out.flush();
+			InputStream in = socket.getInputStream();
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = in.read(buffer)) != -1)
+				response.write(buffer, 0, count);
+			return response.toByteArray();
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void servesTextAndImages() throws IOException {
+		WebTransactionClient text = new WebTransactionClient(server.url("basic.txt"), pool);
+		Assert.assertEquals("Response differs", 200, text.responseCode());
+		Assert.assertEquals("Type differs", "text/plain", text.getHeader("content-type"));
+		Assert.assertEquals("Body differs", file("basic.txt").trim(), text.getText().trim());
+
+		WebTransactionClient image = new WebTransactionClient(server.url("/Images/logo1.png"), pool);
+		Assert.assertEquals("Type differs", "image/png", image.getHeader("content-type"));
+		Image logo = image.getImage();
+		Assert.assertNotNull("Problem loading image", logo);
+		Assert.assertTrue("No width", logo.getWidth(null) > 0);
+
+		Assert.assertEquals("Connections accepted", 1, server.connections());
+		Assert.assertEquals("Requests", 2, server.requests());
+	}
+
+	@Test
+	public void missingFilesAre404() throws IOException {
+		Assert.assertEquals(404, new WebTransactionClient(server.url("noSuchFile.txt"), pool).responseCode());
+		Assert.assertEquals(404, new WebTransactionClient(server.url("../LocalServer.java"), pool).responseCode());
+		Assert.assertEquals(404, new WebTransactionClient(server.url("/Images"), pool).responseCode());
+	}
+
+	@Test
+	public void canCloseEveryConnection() throws IOException {
+		server.setKeepAlive(false);
+		for (int i = 0; i < 3; i++)
+			new WebTransactionClient(server.url("basic.txt"), pool).getText();
+		Assert.assertEquals("Connections accepted", 3, server.connections());
+	}
+
+	@Test(timeout = 5000)
+	public void sendsChunkedBodies() throws IOException {
+		server.setChunked(true);
+		for (int i = 0; i < 3; i++) {
+			WebTransactionClient client = new WebTransactionClient(server.url("Images/logo2.jpeg"), pool);
+			Assert.assertEquals("chunked", client.getHeader("transfer-encoding"));
+			Assert.assertNotNull("Problem loading image", client.getImage());
+		}
+		Assert.assertEquals("Connections accepted", 1, server.connections());
+	}
+
+	@Test
+	public void compressesOnlyForClientsThatAcceptIt() throws IOException {
+		server.setCompress(true);
+		String request = "GET /basic.txt HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n";
+		String plain = new String(exchange(request + "\r\n"), StandardCharsets.ISO_8859_1);
+		Assert.assertFalse("Compressed anyway", plain.toLowerCase().contains("content-encoding"));
+		Assert.assertTrue("Body differs", plain.endsWith(file("basic.txt")));
+
+		byte[] response = exchange(request + "Accept-Encoding: gzip, deflate\r\n\r\n");
+		String head = new String(response, StandardCharsets.ISO_8859_1);
+		Assert.assertTrue("Not gzipped", head.contains("Content-Encoding: gzip\r\n"));
+		int bodyStart = head.indexOf("\r\n\r\n") + 4;
+		GZIPInputStream body = new GZIPInputStream(
+				new java.io.ByteArrayInputStream(response, bodyStart, response.length - bodyStart));
+		ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int count;
+		while ((count = body.read(buffer)) != -1)
+			decoded.write(buffer, 0, count);
+		Assert.assertEquals("Body differs", file("basic.txt"), decoded.toString("ISO-8859-1"));
+	}
+
+	@Test
+	public void answersPipelinedRequestsInOrder() throws IOException {
+		String response = new String(exchange("GET /SubDirectory/index.txt HTTP/1.1\r\nHost: localhost\r\n\r\n"
+				+ "GET /SubDirectory/index2.txt HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"),
+				StandardCharsets.ISO_8859_1);
+		int first = response.indexOf(file("SubDirectory/index.txt"));
+		int second = response.indexOf(file("SubDirectory/index2.txt"));
+		Assert.assertTrue("First missing", first > 0);
+		Assert.assertTrue("Out of order", second > first);
+		Assert.assertEquals("Requests", 2, server.requests());
+	}
+
+	@Test
+	public void answersMatchingETagsWith304() throws IOException {
+		WebTransactionClient client = new WebTransactionClient(server.url("basic.txt"), pool);
+		String etag = client.getHeader("etag");
+		client.getText();
+		String response = new String(exchange("GET /basic.txt HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: " + etag
+				+ "\r\nConnection: close\r\n\r\n"), StandardCharsets.ISO_8859_1);
+		Assert.assertTrue("Not a 304", response.startsWith("HTTP/1.1 304 "));
+	}
+
+	@Test
+	public void delaysResponses() throws IOException {
+		server.setLatency(100);
+		long start = System.nanoTime();
+		new WebTransactionClient(server.url("basic.txt"), pool).getText();
+		Assert.assertTrue("Too fast", System.nanoTime() - start >= 100L * 1000 * 1000);
+	}
+
+	@Test
+	public void throttlesBodies() throws IOException {
+		int size = file("Images/logo1.png").length();
+		server.setBytesPerSecond(size * 4);  // so it should take about a quarter of a second
+		long start = System.nanoTime();
+		Assert.assertNotNull(new WebTransactionClient(server.url("Images/logo1.png"), pool).getImage());
+		Assert.assertTrue("Too fast", System.nanoTime() - start >= 200L * 1000 * 1000);
+	}
+}
@@ -1,3 +1,6 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * @author Paul Hood
@@ -6,10 +9,14 @@
  */
 public class MyURL {
 
-	private String scheme = "http";
-	private String domainName = null;
-	private int port = 80;
-	private String path = "/";
+	private final String scheme;
+	private final String domainName;
+	private final int port;
+	private final String path;
+
+	// A MyURL never changes, so its string form and hash code are worked out once (it is the key of the caches).
+	private final String string;
+	private final int hash;
 
 	/**
 	 * Split {@code url} into the various components of a URL
@@ -17,89 +24,167 @@ public class MyURL {
 	 * @param url the {@code String} to parse
 	 */
 	public MyURL(String url) throws RuntimeException{
-		splitUrl(url);
+		this(url, null);
 	}
 
 	/**
 	 * If {@code newURL} has a scheme (e.g., begins with "http://", "ftp://", etc), then parse {@code newURL} 
 	 * and ignore {@code currentURL}.  If {@code newURL} does not have a scheme, then assume it is intended 
-	 * to be a relative link and replace the file component of {@code currentURL}'s path with {@code newURL}.
+	 * to be a relative link and resolve it against {@code currentURL} the way RFC 3986 (section 5.2) does:
+	 * "//host/path" keeps only the scheme, "/path" keeps the scheme, domain and port, "?query" keeps the path
+	 * too, and anything else replaces the file component of {@code currentURL}'s path.
+	 * <p/>
+	 * Either way, the URL is normalized so that equivalent URLs are equal (and so share cache entries):  "." and
+	 * ".." segments are removed from the path, the scheme and domain are lower-cased, a missing port is the
+	 * scheme's default, and any "#fragment" is dropped (it names a place in the page, not a different page).
 	 *
 	 * @param newURL     a {@code String} representing the new URL.
-	 * @param currentURL the current URL
+	 * @param currentURL the current URL (or {@code null} to parse {@code newURL} on its own)
 	 */
 	public MyURL(String newURL, MyURL currentURL) {
-
-		// check for scheme
-		if (newURL.indexOf("://") != -1) {
-			splitUrl(newURL);
-		} else {
-			
-			// copy data
+		int fragmentIndex = newURL.indexOf('#');
+		if (fragmentIndex != -1)
+			newURL = newURL.substring(0, fragmentIndex);
+		int schemeIndex = indexOfScheme(newURL);
+		boolean networkPath = newURL.startsWith("//");
+
+		// a relative link:  copy the scheme, domain and port from the current URL
+		if (schemeIndex == -1 && !networkPath && currentURL != null) {
 			scheme = currentURL.scheme;
 			domainName = currentURL.domainName;
 			port = currentURL.port;
-			path = currentURL.path;
+			path = resolvePath(currentURL.path, newURL);
+		} else {
+
+			// [scheme:]//domain[:port][/path][?query], in one pass from left to right
+			int domainStart;
+			if (schemeIndex != -1) {
+				scheme = newURL.substring(0, schemeIndex).toLowerCase(Locale.ROOT);
+				domainStart = schemeIndex + 3;
+			} else if (networkPath) {
+				scheme = currentURL == null ? "http" : currentURL.scheme;
+				domainStart = 2;
+			} else {
+				scheme = "http";
+				domainStart = 0;
+			}
+			int pathIndex = indexOfPath(newURL, domainStart);
+			int domainEnd = pathIndex == -1 ? newURL.length() : pathIndex;
+
+			// the port is whatever follows a colon between the domain and the path (but not inside an IPv6 address)
+			int portIndex = newURL.lastIndexOf(':', domainEnd - 1);
+			if (portIndex >= domainStart && portIndex > newURL.lastIndexOf(']', domainEnd - 1)) {
+				port = Integer.parseInt(newURL.substring(portIndex + 1, domainEnd));
+				domainEnd = portIndex;
+			} else {
+				port = defaultPort(scheme);
+			}
+			domainName = newURL.substring(domainStart, domainEnd).toLowerCase(Locale.ROOT);
+			if (pathIndex == -1)
+				path = "/";
+			else if (newURL.charAt(pathIndex) == '?')
+				path = "/" + newURL.substring(pathIndex);
+			else
+				path = normalizePath(newURL.substring(pathIndex));
 
-			// update file path
-			path = path.substring(0, path.lastIndexOf("/") + 1) + newURL;
+			// throw error if domain name empty
+			if (domainName.isEmpty())
+				throw new RuntimeException("No domain name in \"" + newURL + "\"");
 		}
+		string = scheme + "://" + domainName + ":" + port + path;
+		hash = string.hashCode();
 	}
 
-	private void splitUrl(String url) {
-		
-		// last index of prefix 
-		int schemeIndex = url.indexOf("://");
-
-		// index of port character
-		int portIndex = url.lastIndexOf(":");
+	/**
+	 * @param scheme a (lower case) scheme
+	 * @return the port used when a URL with that scheme doesn't give one.
+	 */
+	public static int defaultPort(String scheme) {
+		return scheme.equals("https") ? 443 : 80;
+	}
 
-		// starting index of path character
-		int pathIndex = url.indexOf("/",  schemeIndex + 
-				new String("://").length());
+	// The index of the "://" that ends the scheme, or -1 if the URL doesn't start with one.  A scheme is a letter
+	// followed by letters, digits, '+', '-' and '.' (RFC 3986, section 3.1), so a "://" after a '/', '?' or '#' (e.g.,
+	// in "search?u=http://x") is part of a relative link, not a scheme.
+	private static int indexOfScheme(String url) {
+		if (url.isEmpty() || !isAsciiLetter(url.charAt(0)))
+			return -1;
+		for (int i = 1; i < url.length(); i++) {
+			char c = url.charAt(i);
+			if (c == ':')
+				return url.startsWith("//", i + 1) ? i : -1;
+			if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.')
+				return -1;
+		}
+		return -1;
+	}
 
-		// set scheme if schemeIndex is > 1
-		if (schemeIndex != -1)
-			scheme = url.substring(0, schemeIndex);
+	private static boolean isAsciiLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
 
-		// check if port is set
-		if (portIndex != schemeIndex) {
-			
-			// get port between domain name & path index
-			if (pathIndex != -1)
-				port = Integer.parseInt(url.substring(portIndex + 1, pathIndex));
-			
-			// port is the last part of the string
-			else
-				port = Integer.parseInt(url.substring(portIndex + 1));
+	// The index of the '/' or '?' that ends the domain (and port), or -1 if the URL is only a domain.
+	private static int indexOfPath(String url, int domainStart) {
+		for (int i = domainStart; i < url.length(); i++) {
+			char c = url.charAt(i);
+			if (c == '/' || c == '?')
+				return i;
 		}
+		return -1;
+	}
 
-		// set file path
-		if (pathIndex != -1)
-			path = url.substring(pathIndex);
+	// Resolve a relative link against the path (and query) of the page it is on.
+	private static String resolvePath(String currentPath, String link) {
+		if (link.isEmpty())
+			return currentPath;
+		if (link.charAt(0) == '/')
+			return normalizePath(link);
+		int queryIndex = currentPath.indexOf('?');
+		String directory = queryIndex == -1 ? currentPath : currentPath.substring(0, queryIndex);
+		if (link.charAt(0) == '?')
+			return directory + link;
+		directory = directory.substring(0, directory.lastIndexOf('/') + 1);
+		return normalizePath(directory + link);
+	}
+
+	// Remove the "." and ".." segments from the path part of a path and query.
+	private static String normalizePath(String pathAndQuery) {
+		int queryIndex = pathAndQuery.indexOf('?');
+		String path = queryIndex == -1 ? pathAndQuery : pathAndQuery.substring(0, queryIndex);
 
-		// starting index for domain
-		int domainStart = 0;
+		// almost every path has no dot segments at all
+		if (!path.contains("/.") && !path.startsWith("."))
+			return pathAndQuery;
 
-		// check for scheme
-		if (schemeIndex != -1)
-			domainStart = schemeIndex + new String("://").length();
+		String normalized = removeDotSegments(path);
+		return queryIndex == -1 ? normalized : normalized + pathAndQuery.substring(queryIndex);
+	}
 
-		// get substring from scheme to port if set 
-		if (portIndex != schemeIndex)
-			domainName = url.substring(domainStart, portIndex);
-		
-		// get substring from scheme to path 
-		else if (pathIndex != -1)
-			domainName = url.substring(domainStart, pathIndex);
-		
-		// rest of string is the domain name
-		else
-			domainName = url.substring(domainStart);
+	// RFC 3986, section 5.2.4, for a path that starts with '/'.
+	static String removeDotSegments(String path) {
+		List<String> segments = new ArrayList<String>();
+		String[] parts = path.split("/", -1);
+		boolean endsInDirectory = false;
+		for (int i = path.startsWith("/") ? 1 : 0; i < parts.length; i++) {
+			String segment = parts[i];
+			boolean last = i == parts.length - 1;
+			if (segment.equals(".")) {
+				endsInDirectory = last;
+			} else if (segment.equals("..")) {
+				if (!segments.isEmpty())
+					segments.remove(segments.size() - 1);
+				endsInDirectory = last;
+			} else {
+				segments.add(segment);
+			}
+		}
 
-		// throw error if domain name empty
-		if (domainName.isEmpty())
-			throw new RuntimeException();
+		StringBuilder result = new StringBuilder(path.length());
+		for (String segment : segments)
+			result.append('/').append(segment);
+		if (endsInDirectory || segments.isEmpty())
+			result.append('/');
+		return result.toString();
 	}
 
 	public String scheme() {
@@ -124,21 +209,24 @@ public class MyURL {
 	 * @return this URL formatted as a string.
 	 */
 	public String toString() {
-		return String.format("%s://%s:%d%s", scheme, domainName, port, path);
+		return string;
 	}
 
 	// Needed in order to use MyURL as a key to a HashMap
 	@Override
 	public int hashCode() {
-		return toString().hashCode();
+		return hash;
 	}
 
 	// Needed in order to use MyURL as a key to a HashMap
 	@Override
 	public boolean equals(Object other) {
-		if (other instanceof MyURL) {
+		if (other == this) {
+			return true;
+		} else if (other instanceof MyURL) {
 			MyURL otherURL = (MyURL) other;
-			return this.scheme.equals(otherURL.scheme) &&
+			return this.hash == otherURL.hash &&
+					this.scheme.equals(otherURL.scheme) &&
 					this.domainName.equals(otherURL.domainName) &&
 					this.port == otherURL.port() &&
 					this.path.equals(otherURL.path);
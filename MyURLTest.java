@@ -184,6 +184,92 @@ public class MyURLTest {
 		verifyParts("newFile.xls", url, "ssh", "www.cis.gvsu.edu", 6676, "/dir1/dir2/dir3/newFile.xls");
 	}
 
+	////////////////////////////////////////////
+	//
+	// Test RFC 3986 resolution and normalization
+	//
+	/////////////////////////////////////////////
+
+	private void verifyResolves(String link, String expectedPath) {
+		MyURL base = new MyURL("http://a/b/c/d;p?q");
+		verifyParts(link, base, "http", "a", 80, expectedPath);
+	}
+
+	@Test
+	public void resolvesRFC3986NormalExamples() {
+		verifyResolves("g", "/b/c/g");
+		verifyResolves("./g", "/b/c/g");
+		verifyResolves("g/", "/b/c/g/");
+		verifyResolves("/g", "/g");
+		verifyResolves("?y", "/b/c/d;p?y");
+		verifyResolves("g?y", "/b/c/g?y");
+		verifyResolves("#s", "/b/c/d;p?q");
+		verifyResolves("g#s", "/b/c/g");
+		verifyResolves("", "/b/c/d;p?q");
+		verifyResolves(".", "/b/c/");
+		verifyResolves("./", "/b/c/");
+		verifyResolves("..", "/b/");
+		verifyResolves("../g", "/b/g");
+		verifyResolves("../..", "/");
+		verifyResolves("../../g", "/g");
+	}
+
+	@Test
+	public void resolvesRFC3986AbnormalExamples() {
+		verifyResolves("../../../g", "/g");
+		verifyResolves("/./g", "/g");
+		verifyResolves("/../g", "/g");
+		verifyResolves("g.", "/b/c/g.");
+		verifyResolves("..g", "/b/c/..g");
+		verifyResolves("./../g", "/b/g");
+		verifyResolves("g/./h", "/b/c/g/h");
+		verifyResolves("g/../h", "/b/c/h");
+		verifyResolves("g;x=1/../y", "/b/c/y");
+		verifyResolves("g?y/./x", "/b/c/g?y/./x");
+	}
+
+	@Test
+	public void resolvesNetworkPathReferences() {
+		verifyParts("//other.com:81/x/../y.png", new MyURL("https://a/b/c"), "https", "other.com", 81, "/y.png");
+	}
+
+	@Test
+	public void resolvesLinksWithSchemesInTheirQueries() {
+		verifyResolves("search?u=http://x", "/b/c/search?u=http://x");
+		verifyResolves("?u=http://x/y", "/b/c/d;p?u=http://x/y");
+		verifyResolves("/g/h://i", "/g/h://i");
+		verifyResolves("g#http://x", "/b/c/g");
+	}
+
+	@Test
+	public void parsesSchemesWithDigitsAndPunctuation() {
+		verifyParts("svn+ssh.2://host/x", "svn+ssh.2", "host", 80, "/x");
+	}
+
+	@Test
+	public void equivalentURLsAreEqual() {
+		MyURL page = new MyURL("http://www.cis.gvsu.edu/sampleInput/index.txt");
+		Assert.assertEquals(new MyURL("Images/logo1.png", page), new MyURL("SubDirectory/../Images/logo1.png", page));
+		Assert.assertEquals(new MyURL("HTTP://WWW.CIS.GVSU.EDU:80/a/./b"), new MyURL("http://www.cis.gvsu.edu/a/b"));
+		Assert.assertEquals(new MyURL("http://www.cis.gvsu.edu/a/b"), new MyURL("www.cis.gvsu.edu/a/b#top"));
+	}
+
+	@Test
+	public void httpsDefaultsToPort443() {
+		verifyParts("https://www.cis.gvsu.edu/x", "https", "www.cis.gvsu.edu", 443, "/x");
+	}
+
+	@Test
+	public void parsesQueryWithoutPath() {
+		verifyParts("www.cis.gvsu.edu:73?a=b", "http", "www.cis.gvsu.edu", 73, "/?a=b");
+	}
+
+	@Test
+	public void parsesIPv6Domain() {
+		verifyParts("http://[::1]/x", "http", "[::1]", 80, "/x");
+		verifyParts("http://[::1]:8080/x", "http", "[::1]", 8080, "/x");
+	}
+
 	////////////////////////////////////////////
 	//
 	// Test toString
@@ -0,0 +1,235 @@
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders pages to PNG files without a window:  each page is fetched, laid out and painted by a {@link Display}
+ * into an offscreen image of a given width (and as tall as the page).  Pages are rendered in parallel, one per
+ * core by default;  they share one image cache and one connection pool, so an image used by several pages is
+ * fetched once, and pages from the same server reuse its connections.  Run it with
+ * <pre>
+ *   java -Djava.awt.headless=true PageRenderer [-width pixels] [-threads n] [-out directory] [-list file] url ...
+ * </pre>
+ * where the list file (if any) has one URL per line.  It reports how many pages per second it managed.
+ */
+public class PageRenderer {
+
+	public static final int DEFAULT_WIDTH = 800;
+
+	// a page longer than this is cut off, rather than needing an image too big to allocate
+	public static final int MAX_HEIGHT = 32000;
+
+	private final int width;
+	private final int imageWidth;  // the width images are decoded to fit
+	private final ConnectionPool pool;
+	private final ImageCache images;
+	private final URLTable urls = new URLTable();
+
+	/**
+	 * @param width  the width of the rendered pages, in pixels
+	 * @param pool   where connections to the servers come from
+	 * @param images the images already loaded, and where newly loaded images go
+	 */
+	public PageRenderer(int width, ConnectionPool pool, ImageCache images) {
+		this.width = width;
+		this.imageWidth = ImageDecoder.bucket(width);
+		this.pool = pool;
+		this.images = images;
+	}
+
+	/**
+	 * Fetch a page and its images, and paint it.  May be called from several threads at once.
+	 *
+	 * @param url the page to render
+	 * @return the page as it would be drawn in a window {@code width} pixels wide.
+	 * @throws IOException if the page can't be fetched (a missing image is just left out).
+	 */
+	public BufferedImage render(MyURL url) throws IOException {
+		List<String> lines = SimpleBrowser.readDocument(new WebTransactionClient(url, pool), url);
+		Document document = Document.parse(lines);
+
+		// load every image before painting (no wider than the page needs), so the layout has their sizes
+		for (MyURL image : ImagePrefetcher.findImages(document, url)) {
+			images.getImage(image, imageWidth, new ImageCache.ImageLoader() {
+				@Override
+				public Image loadImage(MyURL image) {
+					try {
+						return new WebTransactionClient(image, pool).getImage(imageWidth);
+					} catch (IOException e) {
+						return null;
+					}
+				}
+			});
+		}
+		return render(document, url);
+	}
+
+	/**
+	 * Paint a document whose images have already been loaded into the image cache.
+	 *
+	 * @param document the document to paint
+	 * @param base     the URL of the document, which relative image URLs are resolved against
+	 * @return the document as it would be drawn in a window {@code width} pixels wide.
+	 */
+	public BufferedImage render(Document document, final MyURL base) {
+
+		// a Display of its own for each page, since it is only ever touched by this thread
+		Display display = new Display();
+		display.setImageSource(new Layout.ImageSource() {
+			@Override
+			public Image getImage(String url) {
+				try {
+					return images.getImage(urls.resolve(url, base), imageWidth);
+				} catch (RuntimeException e) {
+					return null;
+				}
+			}
+		});
+		display.setSize(width, 1);  // before the document, so it is laid out only once
+		display.setDocument(document);
+		int height = Math.max(1, Math.min(MAX_HEIGHT, display.getPreferredSize().height));
+		display.setSize(width, height);
+
+		BufferedImage page = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = page.createGraphics();
+		try {
+			display.paint(g);
+		} finally {
+			g.dispose();
+		}
+		return page;
+	}
+
+	/**
+	 * Render each page to a PNG file in {@code directory}, several pages at a time.  The files are numbered in the
+	 * order of {@code pages};  a page that can't be rendered is reported, and has no file.
+	 *
+	 * @param pages     the pages to render
+	 * @param directory where to write the files
+	 * @param threads   how many pages to render at the same time
+	 * @return the number of pages rendered.
+	 */
+	public int renderAll(List<MyURL> pages, final File directory, int threads) throws InterruptedException {
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<File>> results = new ArrayList<Future<File>>(pages.size());
+			for (int i = 0; i < pages.size(); i++) {
+				final MyURL page = pages.get(i);
+				final File file = new File(directory, fileName(i, page));
+				results.add(workers.submit(new Callable<File>() {
+					@Override
+					public File call() throws IOException {
+						if (!ImageIO.write(render(page), "png", file))
+							throw new IOException("No PNG writer");
+						return file;
+					}
+				}));
+			}
+
+			int rendered = 0;
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					System.out.println(pages.get(i) + " -> " + results.get(i).get());
+					rendered++;
+				} catch (ExecutionException e) {
+					System.err.println(pages.get(i) + ": " + e.getCause());
+				}
+			}
+			return rendered;
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+
+	// e.g., "0003-www.example.com-index.txt.png"
+	static String fileName(int index, MyURL url) {
+		String name = (url.domainName() + url.path()).replaceAll("[^A-Za-z0-9._-]+", "-");
+		if (name.length() > 100)
+			name = name.substring(0, 100);
+		return String.format("%04d-%s.png", index, name);
+	}
+
+	private static void usage() {
+		System.err.println("usage:  java -Djava.awt.headless=true PageRenderer [-width pixels] [-threads n] "
+				+ "[-out directory] [-list file] url ...");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int width = DEFAULT_WIDTH;
+		int threads = Runtime.getRuntime().availableProcessors();
+		File directory = new File(".");
+		List<MyURL> pages = new ArrayList<MyURL>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-width") && i + 1 < args.length)
+					width = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-threads") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-out") && i + 1 < args.length)
+					directory = new File(args[++i]);
+				else if (args[i].equals("-list") && i + 1 < args.length)
+					readList(new File(args[++i]), pages);
+				else if (args[i].startsWith("-"))
+					usage();
+				else
+					pages.add(new MyURL(args[i]));
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			usage();
+		}
+		if (pages.isEmpty() || width <= 0 || threads <= 0)
+			usage();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.err.println("Can't create " + directory);
+			System.exit(1);
+		}
+
+		ConnectionPool pool = new ConnectionPool();
+		int rendered;
+		try {
+			PageRenderer renderer = new PageRenderer(width, pool, new ImageCache());
+			long start = System.nanoTime();
+			rendered = renderer.renderAll(pages, directory, threads);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Rendered %d of %d pages in %.2f s (%.1f pages/s, %d threads)%n", rendered,
+					pages.size(), seconds, rendered / seconds, threads);
+		} finally {
+			pool.close();
+		}
+		if (rendered < pages.size())
+			System.exit(1);
+	}
+
+	// Add the URLs in a file, one per line (skipping blank lines and lines starting with #).
+	private static void readList(File file, List<MyURL> pages) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+				StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#"))
+					pages.add(new MyURL(line));
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
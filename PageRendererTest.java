@@ -0,0 +1,112 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+// These tests serve the sampleInput directory, so they must be run from the top of the project.
+
+
+public class PageRendererTest {
+
+	private LocalServer server;
+	private ConnectionPool pool;
+	private ImageCache images;
+	private PageRenderer renderer;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new LocalServer(new File("sampleInput"));
+		pool = new ConnectionPool();
+		images = new ImageCache();
+		renderer = new PageRenderer(400, pool, images);
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		pool.close();
+		server.close();
+	}
+
+	// The number of pixels that aren't the color of the top left corner (i.e., the background).
+	private static int drawnPixels(BufferedImage image) {
+		int background = image.getRGB(0, 0);
+		int drawn = 0;
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = 0; x < image.getWidth(); x++)
+				if (image.getRGB(x, y) != background)
+					drawn++;
+		return drawn;
+	}
+
+	@Test
+	public void rendersTextAtTheGivenWidth() throws IOException {
+		BufferedImage page = renderer.render(server.url("starterSample.txt"));
+		Assert.assertEquals("Width differs", 400, page.getWidth());
+		Assert.assertTrue("Nothing drawn", drawnPixels(page) > 0);
+
+		// the text wraps, so a narrower page is taller
+		BufferedImage narrow = new PageRenderer(200, pool, images).render(server.url("starterSample.txt"));
+		Assert.assertTrue("Didn't wrap", narrow.getHeight() > page.getHeight());
+	}
+
+	@Test
+	public void loadsImagesBeforePainting() throws IOException {
+		BufferedImage page = renderer.render(server.url("subdirImages.txt"));
+
+		// (cached at the size they were decoded for this width)
+		int width = ImageDecoder.bucket(400);
+		Assert.assertNotNull("Image not loaded", images.getImage(server.url("Images/logo1.png"), width));
+		Assert.assertNotNull("Image not loaded", images.getImage(server.url("Images/gvsu3.gif"), width));
+
+		// the images take up room in the page
+		Assert.assertTrue("Too short for the images", page.getHeight() > images.getImage(
+				server.url("Images/logo1.png"), width).getHeight(null) + images.getImage(
+				server.url("Images/logo2.jpeg"), width).getHeight(null));
+		int requests = server.requests();
+
+		// another page with the same images gets them from the cache
+		renderer.render(server.url("Images/localImages.txt"));
+		Assert.assertEquals("Images fetched again", requests + 1, server.requests());
+	}
+
+	@Test
+	public void rendersPagesInParallel() throws IOException, InterruptedException {
+		File directory = Files.createTempDirectory("pages").toFile();
+		try {
+			// (nothing listens on port 1, so the fourth page fails)
+			List<MyURL> pages = Arrays.asList(server.url("basic.txt"), server.url("subdirImages.txt"),
+					server.url("Images/localImages.txt"), new MyURL("http://localhost:1/nothing.txt"),
+					server.url("SubDirectory/index.txt"));
+
+			Assert.assertEquals("Pages rendered", 4, renderer.renderAll(pages, directory, 3));
+			for (int i = 0; i < pages.size(); i++) {
+				File file = new File(directory, PageRenderer.fileName(i, pages.get(i)));
+				Assert.assertEquals("File for " + pages.get(i), i != 3, file.exists());
+				if (file.exists())
+					Assert.assertEquals("Width differs", 400, ImageIO.read(file).getWidth());
+			}
+
+			// each thread needs only one connection at a time, and they are reused
+			Assert.assertTrue("Connections accepted", server.connections() <= 3);
+		} finally {
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void namesFilesAfterTheirPages() {
+		Assert.assertEquals("0007-localhost-SubDirectory-index.txt.png",
+				PageRenderer.fileName(7, new MyURL("http://localhost/SubDirectory/index.txt")));
+	}
+}
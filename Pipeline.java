@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fetches a batch of URLs with HTTP/1.1 pipelining:  the requests for a host are all written to one connection at
+ * once, and the responses are read back in the same order.  A page's images usually come from the page's own
+ * server, so instead of one round trip per image, the whole batch costs about one round trip plus the time to
+ * transfer it.
+ * <p/>
+ * A server may close the connection part way through (e.g., because it limits the requests per connection, or
+ * doesn't pipeline at all).  The requests it didn't answer are then sent again on a new connection, and never
+ * pipelined deeper than the server has shown it can manage.
+ */
+public class Pipeline {
+
+	public static final int DEFAULT_DEPTH = 16;
+
+	/**
+	 * Receives each response, in the order the URLs were given (for each host).  The body should be read (or the
+	 * client closed) before returning;  any of the body that is left is skipped so the next response can be read.
+	 */
+	public static interface Handler {
+		void handle(MyURL url, WebTransactionClient response) throws IOException;
+	}
+
+	private final ConnectionPool pool;
+	private final int depth;
+	private ResponseCache cache = null;
+
+	/**
+	 * @param pool  where connections come from, and go back to
+	 * @param depth the most requests to have outstanding on a connection at once
+	 */
+	public Pipeline(ConnectionPool pool, int depth) {
+		this.pool = pool;
+		this.depth = depth;
+	}
+
+	public Pipeline(ConnectionPool pool) {
+		this(pool, DEFAULT_DEPTH);
+	}
+
+	/**
+	 * Store the responses that can be cached as their bodies are read, as {@link WebTransactionClient} does.  (The
+	 * requests aren't made conditional, though:  a pipeline is for what the cache doesn't have.)
+	 *
+	 * @param cache the disk cache, or {@code null} for none
+	 */
+	public void setCache(ResponseCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Fetch every URL, a host at a time.
+	 *
+	 * @param urls    the URLs to fetch
+	 * @param handler given each response
+	 * @throws IOException if a URL can't be fetched even on a fresh connection, or the handler throws.
+	 */
+	public void fetch(List<MyURL> urls, Handler handler) throws IOException {
+		Map<String, List<MyURL>> hosts = new LinkedHashMap<String, List<MyURL>>();
+		for (MyURL url : urls) {
+			String host = url.domainName() + ":" + url.port();
+			List<MyURL> same = hosts.get(host);
+			if (same == null) {
+				same = new ArrayList<MyURL>();
+				hosts.put(host, same);
+			}
+			same.add(url);
+		}
+		for (List<MyURL> same : hosts.values())
+			fetchFromOneHost(same, handler);
+	}
+
+	// Send the requests for one host, as many at a time as the connection will take.
+	private void fetchFromOneHost(List<MyURL> urls, Handler handler) throws IOException {
+		Deque<MyURL> remaining = new ArrayDeque<MyURL>(urls);
+		int limit = depth;
+		while (!remaining.isEmpty()) {
+			Batch batch = new Batch(pool.checkOut(remaining.peekFirst()));
+			try {
+				while (!remaining.isEmpty() && batch.reusable) {
+					List<MyURL> sent = batch.send(remaining, limit);
+					int answered = batch.receive(sent, handler);
+					if (answered < sent.size()) {
+
+						// the server stopped answering:  put the rest back, and don't pipeline so deeply next time
+						for (int i = sent.size() - 1; i >= answered; i--)
+							remaining.addFirst(sent.get(i));
+						if (batch.answered == 0 && batch.fresh)
+							throw new IOException("No response from " + sent.get(0));
+						if (answered > 0)
+							limit = answered;
+					}
+				}
+			} finally {
+				batch.finish();
+			}
+		}
+	}
+
+	/**
+	 * The requests sent on one connection, and what has become of the connection.
+	 */
+	private class Batch implements WebTransactionClient.Owner {
+		private final ConnectionPool.Connection connection;
+		private final boolean fresh;      // true if the connection was opened for this batch
+		private boolean reusable = true;  // false once the connection can't carry any more requests
+		private boolean released;         // true once the current response's body has been read
+		private int outstanding = 0;      // requests sent whose responses haven't been read
+		private int answered = 0;         // responses read
+		private boolean finished = false;
+
+		Batch(ConnectionPool.Connection connection) {
+			this.connection = connection;
+			this.fresh = connection.requests() == 1;
+		}
+
+		// Write up to limit requests in one go, taking them off the front of remaining.
+		List<MyURL> send(Deque<MyURL> remaining, int limit) throws IOException {
+			List<MyURL> sent = new ArrayList<MyURL>(Math.min(limit, remaining.size()));
+			StringBuilder requests = new StringBuilder();
+			while (sent.size() < limit && !remaining.isEmpty()) {
+				MyURL url = remaining.pollFirst();
+				sent.add(url);
+				outstanding++;
+				requests.append(WebTransactionClient.request(url, true, Collections.<String, String>emptyMap()));
+			}
+			try {
+				OutputStream out = connection.output();
+				out.write(requests.toString().getBytes(StandardCharsets.ISO_8859_1));
+				out.flush();
+			} catch (IOException e) {
+
+				// nothing was answered, so all of them will be sent again
+				reusable = false;
+			}
+			return sent;
+		}
+
+		// Hand each response to the handler, in order.  Returns how many were answered.
+		int receive(List<MyURL> sent, Handler handler) throws IOException {
+			for (int i = 0; i < sent.size(); i++) {
+				if (!reusable)
+					return i;
+				WebTransactionClient response;
+				try {
+					released = false;
+					response = new WebTransactionClient(sent.get(i), connection, this, cache);
+				} catch (IOException e) {
+					reusable = false;
+					return i;
+				}
+				try {
+					handler.handle(sent.get(i), response);
+				} finally {
+
+					// skip whatever the handler left of the body, so the connection is at the next response
+					if (!released)
+						response.getBody().close();
+					outstanding--;
+					answered++;
+				}
+			}
+			return sent.size();
+		}
+
+		@Override
+		public void released(ConnectionPool.Connection connection, boolean reusable) {
+			released = true;
+			if (!reusable)
+				this.reusable = false;
+		}
+
+		// Return the connection to the pool (or close it, if it can't be used again).
+		void finish() {
+			if (finished)
+				return;
+			finished = true;
+
+			// a connection with responses still on their way can't be used for anything else
+			if (reusable && outstanding == 0)
+				pool.checkIn(connection);
+			else
+				pool.discard(connection);
+		}
+	}
+}
@@ -0,0 +1,209 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// These tests serve the sampleInput directory, so they must be run from the top of the project.
+
+
+public class PipelineTest {
+
+	private static final String[] PAGES = {"basic.txt", "boldAndItalic.txt", "oops.txt", "starterSample.txt",
+			"subdirImages.txt", "SubDirectory/index.txt", "SubDirectory/index2.txt"};
+
+	private LocalServer server;
+	private ConnectionPool pool;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new LocalServer(new File("sampleInput"));
+		pool = new ConnectionPool();
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		pool.close();
+		server.close();
+	}
+
+	private List<MyURL> urls(LocalServer server, String... paths) {
+		List<MyURL> urls = new ArrayList<MyURL>();
+		for (String path : paths)
+			urls.add(server.url(path));
+		return urls;
+	}
+
+	private String file(String path) throws IOException {
+		return new String(Files.readAllBytes(new File("sampleInput", path).toPath()), StandardCharsets.ISO_8859_1);
+	}
+
+	// Fetch the pages, and check that each arrives intact and in order.
+	private void fetchPages(Pipeline pipeline, String... paths) throws IOException {
+		final List<String> bodies = new ArrayList<String>();
+		final List<MyURL> order = new ArrayList<MyURL>();
+		pipeline.fetch(urls(server, paths), new Pipeline.Handler() {
+			@Override
+			public void handle(MyURL url, WebTransactionClient response) throws IOException {
+				order.add(url);
+				bodies.add(response.getText());
+			}
+		});
+		Assert.assertEquals("Order differs", urls(server, paths), order);
+		for (int i = 0; i < paths.length; i++)
+			Assert.assertEquals("Body differs", file(paths[i]).trim(), bodies.get(i).trim());
+	}
+
+	@Test(timeout = 10000)
+	public void pipelinesRequestsOnOneConnection() throws IOException {
+		fetchPages(new Pipeline(pool), PAGES);
+		Assert.assertEquals("Connections accepted", 1, server.connections());
+		Assert.assertEquals("Requests", PAGES.length, server.requests());
+		Assert.assertEquals("Idle connections", 1, pool.idleCount());
+	}
+
+	@Test(timeout = 10000)
+	public void takesAboutOneRoundTrip() throws IOException {
+		server.setLatency(200);
+		long start = System.nanoTime();
+		fetchPages(new Pipeline(pool), PAGES);
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		Assert.assertTrue("Took " + elapsed + " ms", elapsed < 2 * 200);
+	}
+
+	@Test(timeout = 10000)
+	public void reissuesRequestsWhenTheServerClosesMidPipeline() throws IOException {
+		server.setMaxRequestsPerConnection(3);
+		fetchPages(new Pipeline(pool), PAGES);
+		Assert.assertEquals("Connections accepted", 3, server.connections());
+	}
+
+	@Test(timeout = 10000)
+	public void worksWithServersThatCloseEveryConnection() throws IOException {
+		server.setKeepAlive(false);
+		fetchPages(new Pipeline(pool), PAGES);
+		Assert.assertEquals("Connections accepted", PAGES.length, server.connections());
+	}
+
+	@Test(timeout = 10000)
+	public void pipelinesInBatchesOfTheGivenDepth() throws IOException {
+		server.setChunked(true);
+		fetchPages(new Pipeline(pool, 2), PAGES);
+		Assert.assertEquals("Connections accepted", 1, server.connections());
+	}
+
+	@Test(timeout = 10000)
+	public void skipsBodiesTheHandlerDoesntRead() throws IOException {
+		final List<Integer> codes = new ArrayList<Integer>();
+		new Pipeline(pool).fetch(urls(server, "Images/logo2.jpeg", "noSuchFile.txt", "basic.txt"),
+				new Pipeline.Handler() {
+					@Override
+					public void handle(MyURL url, WebTransactionClient response) throws IOException {
+						codes.add(response.responseCode());
+						if (url.path().endsWith(".txt") && response.responseCode() == 200)
+							Assert.assertEquals(file("basic.txt").trim(), response.getText().trim());
+					}
+				});
+		Assert.assertEquals(Arrays.asList(200, 404, 200), codes);
+		Assert.assertEquals("Connections accepted", 1, server.connections());
+	}
+
+	@Test(timeout = 10000)
+	public void groupsRequestsByHost() throws IOException {
+		LocalServer other = new LocalServer(new File("sampleInput"));
+		try {
+			List<MyURL> urls = new ArrayList<MyURL>();
+			urls.add(server.url("basic.txt"));
+			urls.add(other.url("oops.txt"));
+			urls.add(server.url("oops.txt"));
+			urls.add(other.url("basic.txt"));
+			final List<MyURL> order = new ArrayList<MyURL>();
+			new Pipeline(pool).fetch(urls, new Pipeline.Handler() {
+				@Override
+				public void handle(MyURL url, WebTransactionClient response) throws IOException {
+					order.add(url);
+				}
+			});
+			Assert.assertEquals(Arrays.asList(urls.get(0), urls.get(2), urls.get(1), urls.get(3)), order);
+			Assert.assertEquals("Connections accepted", 1, server.connections());
+			Assert.assertEquals("Connections accepted", 1, other.connections());
+		} finally {
+			other.close();
+		}
+	}
+
+	// (a server that hangs up on every connection, rather than a closed port:  connecting to a port that nothing
+	// listens on can now and then connect the socket to itself, and then wait forever for an answer)
+	@Test(expected = IOException.class, timeout = 10000)
+	public void complainsWhenNothingIsAnswered() throws IOException {
+		final ServerSocket hangUp = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true)
+						hangUp.accept().close();
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+		try {
+			MyURL url = new MyURL("http://localhost:" + hangUp.getLocalPort() + "/basic.txt");
+			new Pipeline(pool).fetch(Arrays.asList(url), new Pipeline.Handler() {
+				@Override
+				public void handle(MyURL url, WebTransactionClient response) {
+				}
+			});
+		} finally {
+			hangUp.close();
+		}
+	}
+
+	@Test(expected = IOException.class, timeout = 10000)
+	public void givesUpOnAServerThatNeverAnswers() throws IOException {
+		final ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		final List<Socket> accepted = Collections.synchronizedList(new ArrayList<Socket>());
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true)
+						accepted.add(silent.accept());
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+		pool.setReadTimeout(200);
+		try {
+			MyURL url = new MyURL("http://localhost:" + silent.getLocalPort() + "/basic.txt");
+			new Pipeline(pool).fetch(Arrays.asList(url, url), new Pipeline.Handler() {
+				@Override
+				public void handle(MyURL url, WebTransactionClient response) {
+				}
+			});
+		} finally {
+			silent.close();
+			synchronized (accepted) {
+				for (Socket socket : accepted)
+					socket.close();
+			}
+		}
+	}
+}
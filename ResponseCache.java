@@ -0,0 +1,578 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A disk-backed HTTP cache, so that pages and images survive a restart of the browser.
+ * <p/>
+ * Each response is stored in one file, named after a hash of its {@link MyURL}, holding the body followed by the
+ * head (the status line and headers) and a short trailer that locates and checksums the head.  Keeping the head
+ * last means a revalidation can replace it in place without copying the body.  An entry is <em>fresh</em> for as long as its {@code Cache-Control: max-age} (or
+ * {@code Expires}, or a heuristic based on {@code Last-Modified}) allows, and can be used without asking the server.
+ * A stale entry is revalidated by sending its {@code ETag} and {@code Last-Modified} as {@code If-None-Match} and
+ * {@code If-Modified-Since}; if the server answers {@code 304 Not Modified}, the stored body is used again.
+ * <p/>
+ * The cache is safe to use from several threads (and processes):  entries are written to a temporary file and
+ * renamed into place, so a reader always sees either the old entry or the new one.  (A head being rewritten after
+ * a {@code 304} fails its checksum until it is complete, so a reader that catches it half written just misses.)
+ */
+public class ResponseCache {
+
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	private static final int MAGIC = 0x53574244;  // identifies (and versions) the entry file format
+	private static final int TRAILER = 16;        // the head's offset (i.e., the body's length), and its checksum
+	private static final int MAX_HEAD = 1024 * 1024;
+	private static final long MAX_HEURISTIC_LIFETIME = 24L * 60 * 60 * 1000;
+	private static final int STORES_BETWEEN_TRIMS = 32;
+	private static final int MAX_DRAIN = 64 * 1024;  // most of an unread body worth reading just to cache it
+
+	// A temporary file this old was left behind by a store that never finished (e.g., the browser was killed).
+	private static final long STALE_TEMP = 60L * 60 * 1000;
+
+	private final File directory;
+	private final long maxBytes;
+	private int storesSinceTrim = 0;
+
+	/**
+	 * A response read back from the cache.
+	 */
+	public static class Entry {
+		private final File file;
+		private final String statusLine;
+		private final Map<String, String> headers;
+		private final long storedAt;    // when the response was received (or last revalidated)
+		private final long bodyLength;  // where the head starts in the file
+		private final long checksum;    // of the head, to tell whether it has been rewritten since
+
+		private Entry(File file, String statusLine, Map<String, String> headers, long storedAt, long bodyLength,
+				long checksum) {
+			this.file = file;
+			this.statusLine = statusLine;
+			this.headers = headers;
+			this.storedAt = storedAt;
+			this.bodyLength = bodyLength;
+			this.checksum = checksum;
+		}
+
+		public String statusLine() {
+			return statusLine;
+		}
+
+		/**
+		 * @return the stored headers (with lower-case names).
+		 */
+		public Map<String, String> headers() {
+			return headers;
+		}
+
+		/**
+		 * @param now the current time, in milliseconds
+		 * @return true if the entry can be used without revalidating it.
+		 */
+		public boolean isFresh(long now) {
+			return initialAge(headers, storedAt) + now - storedAt < freshnessLifetime(headers, storedAt);
+		}
+
+		/**
+		 * @return the body of the response.
+		 */
+		public InputStream openBody() throws IOException {
+			final InputStream in = new BufferedInputStream(new FileInputStream(file));
+			return new FilterInputStream(new FixedLengthInputStream(in, bodyLength)) {
+				@Override
+				public void close() throws IOException {
+					in.close();
+				}
+			};
+		}
+	}
+
+	/**
+	 * @param directory where the entries are kept (created if necessary)
+	 * @param maxBytes  roughly how much disk space the cache may use;  the least recently stored entries are
+	 *                  deleted beyond that
+	 */
+	public ResponseCache(File directory, long maxBytes) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Can't create cache directory " + directory);
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		trim();
+	}
+
+	/**
+	 * Open the cache in the user's home directory.
+	 *
+	 * @return the cache, or {@code null} if it can't be opened (the browser then simply runs without one).
+	 */
+	public static ResponseCache openDefault() {
+		try {
+			return new ResponseCache(new File(System.getProperty("user.home"), ".simplebrowser/cache"),
+					DEFAULT_MAX_BYTES);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * @param url the URL of the response
+	 * @return the stored response for {@code url}, or {@code null} if there isn't one.
+	 */
+	public Entry lookup(MyURL url) {
+		File file = fileFor(url);
+		if (!file.isFile())
+			return null;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			long length = raf.length();
+			if (length < TRAILER)
+				return null;
+			raf.seek(length - TRAILER);
+			long bodyLength = raf.readLong();
+			long checksum = raf.readLong();
+			long headLength = length - TRAILER - bodyLength;
+			if (bodyLength < 0 || headLength <= 0 || headLength > MAX_HEAD)
+				return null;
+			byte[] head = new byte[(int) headLength];
+			raf.seek(bodyLength);
+			raf.readFully(head);
+			if (checksum(head) != checksum)
+				return null;
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(head));
+			if (in.readInt() != MAGIC || !in.readUTF().equals(url.toString()))
+				return null;
+			long storedAt = in.readLong();
+			String statusLine = in.readUTF();
+			int count = in.readInt();
+			Map<String, String> headers = new HashMap<String, String>();
+			for (int i = 0; i < count; i++)
+				headers.put(in.readUTF(), in.readUTF());
+			return new Entry(file, statusLine, headers, storedAt, bodyLength, checksum);
+		} catch (IOException e) {
+
+			// a corrupt or half-written entry is just a miss
+			return null;
+		} finally {
+			closeQuietly(raf);
+		}
+	}
+
+	/**
+	 * Add the validators of a stored response to a request, so the server can answer with {@code 304}.
+	 *
+	 * @param entry   the stored response
+	 * @param request the request headers to add to
+	 */
+	public static void addConditionalHeaders(Entry entry, Map<String, String> request) {
+		String etag = entry.headers.get("etag");
+		if (etag != null)
+			request.put("If-None-Match", etag);
+		String lastModified = entry.headers.get("last-modified");
+		if (lastModified != null)
+			request.put("If-Modified-Since", lastModified);
+	}
+
+	/**
+	 * @param headers the headers of a {@code 200} response
+	 * @return true if the response may be stored:  it isn't marked {@code no-store}, and it will either be fresh for
+	 * a while or can be revalidated.
+	 */
+	public static boolean isCacheable(Map<String, String> headers) {
+		long now = System.currentTimeMillis();
+		String cacheControl = headers.get("cache-control");
+		if (cacheControl != null && cacheControl.toLowerCase().contains("no-store"))
+			return false;
+		return headers.containsKey("etag") || headers.containsKey("last-modified")
+				|| freshnessLifetime(headers, now) > initialAge(headers, now);
+	}
+
+	/**
+	 * Start storing a response.  The body is copied to the cache as it is read through the returned stream, and
+	 * the entry only becomes visible once the body has been read to the end.
+	 *
+	 * @param url        the URL of the response
+	 * @param statusLine the status line of the response
+	 * @param headers    the headers of the response
+	 * @param body       the body of the response
+	 * @return a stream to read the body from, in place of {@code body}.
+	 */
+	public InputStream store(MyURL url, String statusLine, Map<String, String> headers, InputStream body)
+			throws IOException {
+		// headers that describe the connection rather than the response aren't worth keeping
+		Map<String, String> stored = new HashMap<String, String>(headers);
+		stored.remove("connection");
+		stored.remove("keep-alive");
+		stored.remove("transfer-encoding");
+
+		long storedAt = System.currentTimeMillis();
+		File temp = File.createTempFile("entry", ".tmp", directory);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+		return new Recorder(body, out, temp, fileFor(url), head(url, statusLine, stored, storedAt));
+	}
+
+	/**
+	 * Record that the server confirmed (with {@code 304 Not Modified}) that a stored response is still good:  merge in
+	 * the headers that came with the {@code 304} and restart the entry's freshness lifetime.  Only the entry's head is
+	 * rewritten;  the body stays where it is.
+	 *
+	 * @param url     the URL of the response
+	 * @param entry   the stored response
+	 * @param headers the headers of the {@code 304} response
+	 * @return the updated entry.
+	 */
+	public Entry revalidated(MyURL url, Entry entry, Map<String, String> headers) {
+		Map<String, String> merged = new HashMap<String, String>(entry.headers);
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+
+			// a 304 describes the stored body, so it must not change how that body is framed (or encoded:  bodies
+			// are stored already decoded)
+			String name = header.getKey();
+			if (!name.equals("content-length") && !name.equals("transfer-encoding")
+					&& !name.equals("content-encoding"))
+				merged.put(name, header.getValue());
+		}
+
+		long now = System.currentTimeMillis();
+		long checksum = entry.checksum;
+		RandomAccessFile raf = null;
+		try {
+			byte[] head = head(url, entry.statusLine, merged, now);
+			raf = new RandomAccessFile(entry.file, "rw");
+
+			// (checked through the open file, so that an entry renamed into place since then is left alone)
+			long length = raf.length();
+			if (length >= TRAILER) {
+				raf.seek(length - TRAILER);
+				if (raf.readLong() == entry.bodyLength && raf.readLong() == entry.checksum) {
+					checksum = checksum(head);
+					raf.seek(entry.bodyLength);
+					raf.write(head);
+					raf.writeLong(entry.bodyLength);
+					raf.writeLong(checksum);
+					raf.setLength(raf.getFilePointer());
+				}
+			}
+		} catch (IOException e) {
+			// the stored body is still good;  it just stays stale on disk (or is a miss, if the head was half written)
+		} finally {
+			closeQuietly(raf);
+		}
+		return new Entry(entry.file, entry.statusLine, merged, now, entry.bodyLength, checksum);
+	}
+
+	/**
+	 * Remove the stored response for {@code url} (e.g., because the server no longer has it).
+	 *
+	 * @param url the URL of the response
+	 */
+	public void remove(MyURL url) {
+		fileFor(url).delete();
+	}
+
+	// An entry's head, which goes after the body (followed by the trailer).
+	// (The only failure is a header too long to write.)
+	private static byte[] head(MyURL url, String statusLine, Map<String, String> headers, long storedAt)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		data.writeInt(MAGIC);
+		data.writeUTF(url.toString());
+		data.writeLong(storedAt);
+		data.writeUTF(statusLine);
+		data.writeInt(headers.size());
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			data.writeUTF(header.getKey());
+			data.writeUTF(header.getValue());
+		}
+		data.flush();
+		return bytes.toByteArray();
+	}
+
+	private static long checksum(byte[] head) {
+		CRC32 crc = new CRC32();
+		crc.update(head);
+		return crc.getValue();
+	}
+
+	// How long (in milliseconds) a response stays fresh, following the usual HTTP caching rules.  The directives
+	// that forbid using it unchecked win over max-age, wherever they appear in the header.
+	private static long freshnessLifetime(Map<String, String> headers, long storedAt) {
+		String cacheControl = headers.get("cache-control");
+		if (cacheControl != null) {
+			String maxAge = null;
+			for (String directive : cacheControl.toLowerCase().split(",")) {
+				directive = directive.trim();
+				if (directive.equals("no-cache") || directive.equals("no-store")
+						|| directive.equals("must-revalidate"))
+					return 0;
+				if (directive.startsWith("max-age=") && maxAge == null)
+					maxAge = directive.substring("max-age=".length()).trim();
+			}
+			if (maxAge != null) {
+				try {
+					return Math.max(0, Long.parseLong(maxAge) * 1000);
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+
+		long date = parseDate(headers.get("date"), storedAt);
+		long expires = parseDate(headers.get("expires"), -1);
+		if (expires != -1)
+			return Math.max(0, expires - date);
+
+		// a document that hasn't changed in a long time probably won't change soon
+		long lastModified = parseDate(headers.get("last-modified"), -1);
+		if (lastModified != -1 && lastModified < date)
+			return Math.min((date - lastModified) / 10, MAX_HEURISTIC_LIFETIME);
+		return 0;
+	}
+
+	// How old (in milliseconds) a response already was when it was received (RFC 9111, section 4.2.3):  the Age
+	// that caches on the way added, or the time since the server's Date if that is more.
+	private static long initialAge(Map<String, String> headers, long storedAt) {
+		long age = 0;
+		String ageHeader = headers.get("age");
+		if (ageHeader != null) {
+			try {
+				age = Math.max(0, Long.parseLong(ageHeader.trim()) * 1000);
+			} catch (NumberFormatException e) {
+				// ignored, as the RFC says
+			}
+		}
+		long date = parseDate(headers.get("date"), storedAt);
+		return Math.max(age, storedAt - date);
+	}
+
+	private static long parseDate(String value, long otherwise) {
+		if (value == null)
+			return otherwise;
+		try {
+			return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return otherwise;
+		}
+	}
+
+	private File fileFor(MyURL url) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(url.toString().getBytes(StandardCharsets.UTF_8));
+			return new File(directory, HexFormat.of().formatHex(hash) + ".entry");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is always available", e);
+		}
+	}
+
+	// Delete the temporary files that were left behind, and then the oldest entries until the cache fits in maxBytes.
+	private synchronized void trim() {
+		storesSinceTrim = 0;
+
+		// (recent temporary files belong to responses that are still being stored:  they count, but aren't deleted)
+		final long now = System.currentTimeMillis();
+		final long[] total = {0};
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				String name = file.getName();
+				if (name.endsWith(".tmp")) {
+					if (now - file.lastModified() > STALE_TEMP && file.delete())
+						return false;
+					total[0] += file.length();
+					return false;
+				}
+				if (!name.endsWith(".entry"))
+					return false;
+				total[0] += file.length();
+				return true;
+			}
+		});
+		if (files == null || total[0] <= maxBytes)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (File file : files) {
+			if (total[0] <= maxBytes)
+				break;
+			long length = file.length();
+			if (file.delete())
+				total[0] -= length;
+		}
+	}
+
+	private synchronized boolean timeToTrim() {
+		return ++storesSinceTrim >= STORES_BETWEEN_TRIMS;
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable == null)
+			return;
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// nothing useful to do
+		}
+	}
+
+	/**
+	 * Copies a body into a new entry as it is read.  The entry's head is added and the entry is renamed into place
+	 * when the body has been read to the end;  it is thrown away if the body is closed early or fails.
+	 */
+	private class Recorder extends FilterInputStream {
+		private final OutputStream out;
+		private final File temp;
+		private final File target;
+		private final byte[] head;
+		private long recorded = 0;
+		private boolean finished = false;
+
+		private Recorder(InputStream body, OutputStream out, File temp, File target, byte[] head) {
+			super(body);
+			this.out = out;
+			this.temp = temp;
+			this.target = target;
+			this.head = head;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b;
+			try {
+				b = in.read();
+			} catch (IOException e) {
+				abandon();
+				throw e;
+			}
+			if (b == -1)
+				commit();
+			else if (!finished)
+				record(new byte[] { (byte) b }, 0, 1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count;
+			try {
+				count = in.read(b, off, len);
+			} catch (IOException e) {
+				abandon();
+				throw e;
+			}
+			if (count == -1)
+				commit();
+			else if (!finished)
+				record(b, off, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+
+			// skipped bytes wouldn't be recorded
+			abandon();
+			return in.skip(n);
+		}
+
+		// Decoders often stop just short of the end of the body (e.g., before trailing padding), so read a short
+		// remainder through to the end rather than losing the entry.
+		@Override
+		public void close() throws IOException {
+			byte[] buffer = new byte[4096];
+			int drained = 0;
+			try {
+				while (!finished && drained < MAX_DRAIN) {
+					int count = read(buffer);
+					if (count == -1)
+						break;
+					drained += count;
+				}
+			} catch (IOException e) {
+				// read() has already abandoned the entry
+			}
+			abandon();
+			in.close();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void record(byte[] b, int off, int len) {
+			try {
+				out.write(b, off, len);
+				recorded += len;
+			} catch (IOException e) {
+
+				// a full disk shouldn't break the page;  the response just isn't cached
+				abandon();
+			}
+		}
+
+		private void commit() {
+			if (finished)
+				return;
+			finished = true;
+			try {
+				DataOutputStream data = new DataOutputStream(out);
+				data.write(head);
+				data.writeLong(recorded);
+				data.writeLong(checksum(head));
+				data.close();
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				closeQuietly(out);
+				temp.delete();
+			}
+			if (timeToTrim())
+				trim();
+		}
+
+		private void abandon() {
+			if (finished)
+				return;
+			finished = true;
+			closeQuietly(out);
+			temp.delete();
+		}
+	}
+}
@@ -0,0 +1,235 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// These tests run against a small stand-in server on localhost that serves one document with an ETag, and answers
+// "304 Not Modified" when the client already has it.
+
+
+public class ResponseCacheTest {
+
+	private ServerSocket server;
+	private AtomicInteger requests = new AtomicInteger();
+	private AtomicInteger notModified = new AtomicInteger();
+	private volatile String cacheControl = "max-age=0";
+	private volatile String etag = "\"v1\"";
+	private volatile String age = null;  // the Age header to send, if any
+
+	private File directory;
+	private ResponseCache cache;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("cache").toFile();
+		cache = new ResponseCache(directory, ResponseCache.DEFAULT_MAX_BYTES);
+
+		server = new ServerSocket(0);
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true)
+						serve(server.accept());
+				} catch (IOException e) {
+					// server socket closed
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	// Answer one request and close the connection.
+	private void serve(Socket socket) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+		OutputStream out = socket.getOutputStream();
+		in.readLine();
+		requests.incrementAndGet();
+		String ifNoneMatch = null;
+		String line;
+		while ((line = in.readLine()) != null && line.length() > 0) {
+			if (line.toLowerCase().startsWith("if-none-match:"))
+				ifNoneMatch = line.substring(line.indexOf(':') + 1).trim();
+		}
+
+		String body = "Version " + etag + "\n";
+		String head;
+		if (etag.equals(ifNoneMatch)) {
+			notModified.incrementAndGet();
+			head = "HTTP/1.1 304 Not Modified\r\nETag: " + etag + "\r\nCache-Control: " + cacheControl + "\r\n\r\n";
+			body = "";
+		} else {
+			head = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nETag: " + etag + "\r\nCache-Control: "
+					+ cacheControl + (age == null ? "" : "\r\nAge: " + age) + "\r\nContent-Length: " + body.length()
+					+ "\r\n\r\n";
+		}
+		out.write((head + body).getBytes("ISO-8859-1"));
+		out.flush();
+		socket.close();
+	}
+
+	private WebTransactionClient fetch() throws IOException {
+		return new WebTransactionClient(new MyURL("http://localhost:" + server.getLocalPort() + "/page.txt"), null,
+				cache);
+	}
+
+	@Test
+	public void freshResponsesAreServedFromDisk() throws IOException {
+		cacheControl = "max-age=3600";
+		Assert.assertEquals("Version \"v1\"\n", fetch().getText());
+
+		WebTransactionClient client = fetch();
+		Assert.assertTrue("Not from cache", client.isFromCache());
+		Assert.assertEquals("Response differs", 200, client.responseCode());
+		Assert.assertEquals("Type differs", "text/plain", client.getHeader("content-type"));
+		Assert.assertEquals("Version \"v1\"\n", client.getText());
+		Assert.assertEquals("Requests", 1, requests.get());
+	}
+
+	@Test
+	public void staleResponsesAreRevalidated() throws IOException {
+		Assert.assertEquals("Version \"v1\"\n", fetch().getText());
+
+		WebTransactionClient client = fetch();
+		Assert.assertTrue("Not from cache", client.isFromCache());
+		Assert.assertEquals("Response differs", 200, client.responseCode());
+		Assert.assertEquals("Version \"v1\"\n", client.getText());
+		Assert.assertEquals("Requests", 2, requests.get());
+		Assert.assertEquals("304s", 1, notModified.get());
+	}
+
+	// A 304 rewrites the entry's head where it is, rather than copying the body to a new file.
+	@Test
+	public void revalidationKeepsTheStoredBody() throws IOException {
+		fetch().getText();
+		File entry = directory.listFiles()[0];
+		Object stored = Files.readAttributes(entry.toPath(), BasicFileAttributes.class).fileKey();
+
+		cacheControl = "max-age=3600";
+		Assert.assertEquals("Version \"v1\"\n", fetch().getText());
+		Assert.assertEquals("Files", 1, directory.listFiles().length);
+		if (stored != null)
+			Assert.assertEquals("Entry was copied", stored,
+					Files.readAttributes(entry.toPath(), BasicFileAttributes.class).fileKey());
+
+		// and the new head sticks:  the entry is now fresh
+		WebTransactionClient client = fetch();
+		Assert.assertTrue("Not from cache", client.isFromCache());
+		Assert.assertEquals("Version \"v1\"\n", client.getText());
+		Assert.assertEquals("Requests", 2, requests.get());
+	}
+
+	@Test
+	public void leftoverTemporaryFilesAreDeleted() throws IOException {
+		File stale = File.createTempFile("entry", ".tmp", directory);
+		stale.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000);
+		File recent = File.createTempFile("entry", ".tmp", directory);
+
+		new ResponseCache(directory, ResponseCache.DEFAULT_MAX_BYTES);
+		Assert.assertFalse("Stale file kept", stale.exists());
+		Assert.assertTrue("File being written deleted", recent.exists());
+	}
+
+	@Test
+	public void noCacheWinsWhereverItIs() throws IOException {
+		for (String directives : new String[]{"max-age=3600, no-cache", "no-cache, max-age=3600",
+				"max-age=3600, must-revalidate"}) {
+			cacheControl = directives;
+			cache.remove(new MyURL("http://localhost:" + server.getLocalPort() + "/page.txt"));
+			requests.set(0);
+			fetch().getText();
+			Assert.assertTrue(directives, fetch().isFromCache());
+			Assert.assertEquals(directives, 2, requests.get());
+		}
+	}
+
+	@Test
+	public void theAgeOfAResponseCountsAgainstItsLifetime() throws IOException {
+		cacheControl = "max-age=3600";
+		age = "3500";
+		fetch().getText();
+		Assert.assertTrue("Not from cache", fetch().isFromCache());
+		Assert.assertEquals("Requests", 1, requests.get());
+
+		// a response that was already older than its lifetime has to be revalidated straight away
+		age = "3600";
+		cache.remove(new MyURL("http://localhost:" + server.getLocalPort() + "/page.txt"));
+		fetch().getText();
+		fetch().getText();
+		Assert.assertEquals("Requests", 3, requests.get());
+		Assert.assertEquals("304s", 1, notModified.get());
+	}
+
+	@Test
+	public void changedResponsesReplaceTheEntry() throws IOException {
+		Assert.assertEquals("Version \"v1\"\n", fetch().getText());
+		etag = "\"v2\"";
+
+		WebTransactionClient client = fetch();
+		Assert.assertFalse("From cache", client.isFromCache());
+		Assert.assertEquals("Version \"v2\"\n", client.getText());
+		Assert.assertEquals("Version \"v2\"\n", fetch().getText());
+		Assert.assertEquals("304s", 1, notModified.get());
+	}
+
+	@Test
+	public void unreadBodiesAreNotStored() throws IOException {
+		cacheControl = "max-age=3600";
+		fetch().close();
+		fetch().getText();
+		Assert.assertEquals("Requests", 2, requests.get());
+	}
+
+	// With one connection per host, a 304 that doesn't give its connection back leaves the next request waiting
+	// forever.  (This test serves the sampleInput directory, so it must be run from the top of the project.)
+	@Test(timeout = 10000)
+	public void revalidationGivesTheConnectionBack() throws IOException {
+		LocalServer local = new LocalServer(new File("sampleInput"));
+		ConnectionPool pool = new ConnectionPool(ConnectionPool.DEFAULT_IDLE_TIMEOUT, 1,
+				ConnectionPool.Transport.SOCKET);
+		try {
+			local.setCacheControl("max-age=0");
+			MyURL url = local.url("basic.txt");
+			String text = new WebTransactionClient(url, pool, cache).getText();
+			for (int i = 0; i < 3; i++) {
+				WebTransactionClient client = new WebTransactionClient(url, pool, cache);
+				Assert.assertTrue("Not from cache", client.isFromCache());
+				Assert.assertEquals("Text differs", text, client.getText());
+			}
+			Assert.assertEquals("Connections accepted", 1, local.connections());
+			Assert.assertEquals("Idle connections", 1, pool.idleCount());
+		} finally {
+			pool.close();
+			local.close();
+		}
+	}
+
+	@Test
+	public void noStoreResponsesAreNotStored() throws IOException {
+		cacheControl = "no-store";
+		fetch().getText();
+		fetch().getText();
+		Assert.assertEquals("Requests", 2, requests.get());
+		Assert.assertEquals("304s", 0, notModified.get());
+	}
+}
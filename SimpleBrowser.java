@@ -1,17 +1,31 @@
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 
 /**
  * This class can serve as starter code for a simple web browser.
@@ -24,6 +38,8 @@ public class SimpleBrowser {
 	private JFrame frame;
 	protected JTextField addressBar;
 	private JScrollPane scrollPane;
+	private JButton back;
+	private JButton forward;
 	private Display display;
 	private String homeLoc;
 
@@ -31,9 +47,51 @@ public class SimpleBrowser {
 	// (This repeated fetching is especially annoying when scrolling.)
 	protected ImageCache cache = new ImageCache();
 
+	// Keep-alive connections shared by page and image requests, so that loading a page and its images
+	// doesn't cost a new TCP handshake per request.  Channels read into pooled direct buffers, which keeps
+	// repeated image loads from churning the heap.
+	protected ConnectionPool pool = new ConnectionPool(ConnectionPool.DEFAULT_IDLE_TIMEOUT,
+			ConnectionPool.DEFAULT_MAX_PER_HOST, ConnectionPool.Transport.CHANNEL);
+
+	// Responses kept on disk between runs, so a restart doesn't re-download everything.  (null if unavailable)
+	protected ResponseCache diskCache = ResponseCache.openDefault();
+
 	// The URL of the currently displayed document;
 	protected MyURL currentURL = null;
 
+	// Resolves the links and images of recent pages once, instead of on every paint.
+	protected URLTable urls = new URLTable();
+
+	// Pages and images are loaded on these threads so that the network never blocks the Event Dispatch Thread.
+	private final ExecutorService loader = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "page-loader");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	// The most recently requested page, and the page on the screen.  (These are the same once a page has loaded.)
+	// Only touched on the Event Dispatch Thread.
+	private Navigation navigation = null;
+	private Navigation displayed = null;
+
+	// How often (in milliseconds) an image that is still arriving is repainted.
+	private static final long PROGRESS_INTERVAL = 100;
+
+	// The pages visited, with the recent ones kept parsed so that going back to them needs no network.
+	// Only touched on the Event Dispatch Thread.
+	protected History history = new History();
+
+	// Loads a page's images as soon as the page arrives, down one pipelined connection per host.
+	private final ImagePrefetcher prefetcher = new ImagePrefetcher(cache, pool, diskCache);
+
+	// The width that images are decoded to fit:  the display's width, rounded up so that resizing the window a
+	// little doesn't load every image again.  (0, for full size, until the display has a width.)  Kept up to date
+	// on the Event Dispatch Thread as the display is resized, so the loaders never have to ask Swing.
+	private volatile int imageWidth = 0;
+
 	protected SimpleBrowser(String frameName, String initialLocation, JPanel displayPanel) {
 		homeLoc = initialLocation;
 
@@ -43,8 +101,16 @@ public class SimpleBrowser {
 
 		JPanel barPanel = new JPanel();
 		barPanel.setLayout(new BorderLayout());
+		back = new JButton("Back");
+		forward = new JButton("Forward");
+		back.setEnabled(false);
+		forward.setEnabled(false);
 		JButton home = new JButton("Home");
-		barPanel.add(home, BorderLayout.WEST);
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+		buttons.add(back);
+		buttons.add(forward);
+		buttons.add(home);
+		barPanel.add(buttons, BorderLayout.WEST);
 		barPanel.add(addressBar, BorderLayout.CENTER);
 
 		Dimension screenSize = java.awt.Toolkit.getDefaultToolkit().getScreenSize();
@@ -80,6 +146,20 @@ public class SimpleBrowser {
 			}
 		});
 
+		back.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				goBack();
+			}
+		});
+
+		forward.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				goForward();
+			}
+		});
+
 
 		displayPanel.addMouseListener(new MouseAdapter() {
 			@Override
@@ -93,6 +173,13 @@ public class SimpleBrowser {
 	public SimpleBrowser(String frameName, String initialLocation, Display display_in) {
 		this(frameName, initialLocation, (JPanel) display_in);
 		display = display_in;
+		imageWidth = ImageDecoder.bucket(display.getWidth());
+		display.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				imageWidth = ImageDecoder.bucket(display.getWidth());
+			}
+		});
 		loadPage(initialLocation);
 	}
 
@@ -106,76 +193,396 @@ public class SimpleBrowser {
 			loadPage(newUrl);
 	}
 
+	/**
+	 * Start loading a page.  The page is fetched on a background thread and displayed (on the Event Dispatch Thread)
+	 * when it arrives.  Loading a new page cancels any page that is still loading.
+	 *
+	 * @param textInBar the URL to load, which may be relative to the current page
+	 */
 	protected void loadPage(String textInBar) {
+		final MyURL url;
 		try {
 
 			// check if url should be updated or created
 			if (currentURL == null)
-				currentURL = new MyURL(textInBar);
+				url = new MyURL(textInBar);
 			else
-				currentURL = new MyURL(textInBar, currentURL);
+				url = new MyURL(textInBar, currentURL);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
 
-            // update address bar text
-            addressBar.setText(currentURL.toString());
+		// update address bar text
+		addressBar.setText(url.toString());
+		navigate(url, null);
+	}
 
+	/**
+	 * Go back to the previous page.  A page visited recently enough to still be in the history's snapshots is shown
+	 * again straight away (scrolled to where it was left);  an older one is fetched again.
+	 */
+	protected void goBack() {
+		history.setScroll(scrollPosition());
+		revisit(history.previous());
+	}
 
-			// new web transaction client object
-			WebTransactionClient client = new WebTransactionClient(currentURL);
+	/**
+	 * Go forward to the page that was gone back from.
+	 */
+	protected void goForward() {
+		history.setScroll(scrollPosition());
+		revisit(history.next());
+	}
 
-			// create list of lines to display
-			List<String> lines = new ArrayList<String>();
+	private void revisit(History.Entry entry) {
+		if (entry == null)
+			return;
+		addressBar.setText(entry.url().toString());
+		if (entry.document() == null) {
+			navigate(entry.url(), entry);
+			return;
+		}
 
-			// check for image entered into address bar
-			if (client.getHeader("content-type").contains("image")) {
+		// (a navigation with nothing to fetch, so the page's images still load as it is painted)
+		if (navigation != null && navigation != displayed)
+			navigation.cancel();
+		navigation = new Navigation();
+		showPage(navigation, entry.url(), entry.document(), entry);
+	}
 
-				// add image url to first line
-				lines.add("<<" + currentURL + ">>");
-			}
-			else {
+	// Fetch a page in the background and show it.  entry is the history entry the page is being fetched again for,
+	// or null if the page is new.
+	private void navigate(final MyURL url, final History.Entry entry) {
+
+		// only one page loads at a time
+		if (navigation != null && navigation != displayed)
+			navigation.cancel();
+		final Navigation loading = new Navigation();
+		navigation = loading;
 
-				// split page text by newline character
-				for (String s : client.getText().split("\n"))
-					lines.add(s);
+		// (the page's images are decoded to fit the window as it is when the page is asked for)
+		final int maxWidth = imageWidth;
+		loading.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					WebTransactionClient client = loading.open(url);
+					List<String> lines;
+					try {
+						lines = readDocument(client, url);
+					} finally {
+						loading.closed(client);
+					}
+
+					// parse the markup here, rather than on the Event Dispatch Thread
+					final Document document = Document.parse(lines);
+
+					// start on the images right away, so the cache is warm by the time the page is painted
+					// (decoded no wider than the window needs, rather than at full size)
+					List<MyURL> images = ImagePrefetcher.findImages(document, url);
+					loading.track(prefetcher.prefetch(images, maxWidth, loading, new ImagePrefetcher.Loader() {
+						@Override
+						public Image decode(MyURL image, WebTransactionClient response) throws IOException {
+							return loading.decode(image, response, maxWidth);
+						}
+
+						@Override
+						public Image load(MyURL image) {
+							return loading.fetch(image, maxWidth);
+						}
+					}, new ImagePrefetcher.Listener() {
+						@Override
+						public void imageLoaded(MyURL image, Image loaded) {
+							loading.imageArrived();
+						}
+					}));
+
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							showPage(loading, url, document, entry);
+						}
+					});
+				} catch (Exception e) {
+					if (!loading.isCancelled())
+						e.printStackTrace();
+				}
 			}
-			display.setBrowser(this);
-			display.setText(lines);
-			frame.repaint();
+		});
+	}
 
-		} catch (Exception e) {
-			e.printStackTrace();
+	// Display a page that has finished loading (on the Event Dispatch Thread).  entry is the page's history entry
+	// if it was gone back or forward to, or null if it is a new page.
+	private void showPage(Navigation loaded, MyURL url, Document document, History.Entry entry) {
+		if (loaded != navigation)
+			return;
+
+		// images still loading for the old page are no longer needed
+		if (displayed != null)
+			displayed.cancel();
+		displayed = loaded;
+
+		if (entry == null) {
+			history.setScroll(scrollPosition());
+			history.visit(url, document);
+		} else {
+
+			// (only now that the page is here:  a page that fails to load again leaves the history where it was)
+			history.show(entry);
+			if (entry.document() != document)
+				history.restored(entry, document);
 		}
+		back.setEnabled(history.canGoBack());
+		forward.setEnabled(history.canGoForward());
+
+		currentURL = url;
+		display.setBrowser(this);
+		display.setDocument(document);
+
+		// lay the scroll pane out for the new page now, so the old page's position can be restored
+		scrollPane.validate();
+		scrollPane.getVerticalScrollBar().setValue(entry == null ? 0 : entry.scroll());
+		frame.repaint();
+	}
+
+	private int scrollPosition() {
+		return scrollPane.getVerticalScrollBar().getValue();
+	}
+
+	/**
+	 * Read a response into the lines of a document.  A response that is an image becomes a one-line document that
+	 * displays the image.  The client's connection is released either way.
+	 *
+	 * @param client a client whose response head has been read
+	 * @param url    the URL that was requested
+	 * @return the lines of the document.
+	 */
+	static List<String> readDocument(WebTransactionClient client, MyURL url) throws IOException {
+
+		// create list of lines to display
+		List<String> lines = new ArrayList<String>();
+
+		// check for image entered into address bar
+		String type = client.getHeader("content-type");
+		if (type != null && type.contains("image")) {
+
+			// add image url to first line
+			lines.add("<<" + url + ">>");
+
+			// the image itself is fetched (and cached) when the page is drawn
+			client.close();
+		}
+		else {
+
+			// the lines are decoded (and decompressed) as they arrive;  blank lines at the end are dropped, as
+			// they always have been
+			lines = client.getLines();
+			while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty())
+				lines.remove(lines.size() - 1);
+		}
+		return lines;
 	}
 
 	// Fetch an image from from the server, or return null if 
 	// the image isn't available.
 	protected Image fetchImage(MyURL url) {
+		return fetchImage(url, null, 0);
+	}
+
+	private Image fetchImage(MyURL url, Navigation owner, int maxWidth) {
 		try {
-			WebTransactionClient client = new WebTransactionClient(url);
-			return client.getImage();
+			WebTransactionClient client = owner == null ? new WebTransactionClient(url, pool, diskCache)
+					: owner.open(url);
+			try {
+				return client.getImage(maxWidth, owner == null ? null : owner.progress(url, maxWidth));
+			} finally {
+				if (owner != null)
+					owner.closed(client);
+			}
 		} catch (Exception e) {
-			e.printStackTrace();
+			if (owner == null || !owner.isCancelled())
+				e.printStackTrace();
 			return null;
 		}
 	}
 
 	/**
-	 * Return the image at the given url.
+	 * Return the image at the given url if it has already been loaded.  Otherwise start loading it in the
+	 * background and return {@code null};  the display is repainted when the image arrives.
 	 *
 	 * @param urlString the URL of the image to load.
-	 * @return The desired image, or {@code null} if the image isn't available.
+	 * @return The desired image, or {@code null} if the image isn't available (yet) or its URL is malformed.
 	 */
 	public Image getCachedImage(String urlString) {
-		MyURL url = new MyURL(urlString, currentURL);
+		MyURL url;
+		try {
+			url = urls.resolve(urlString, currentURL);
+		} catch (RuntimeException e) {
+			// a malformed URL (e.g., a port that isn't a number) is laid out as a placeholder, like a broken image
+			return null;
+		}
+		final int maxWidth = imageWidth;
+		Image image = cache.getImage(url, maxWidth);
+
+		// start loading it, unless it is already loading (e.g., prefetching) or failed recently
+		if (image == null && displayed != null) {
+			final Navigation owner = displayed;
+			cache.getImageAsync(url, maxWidth, new ImageCache.AsyncImageLoader() {
+				@Override
+				public CompletableFuture<Image> loadImage(MyURL url) {
+					return owner.loadImage(url, maxWidth);
+				}
+			});
+		}
+		return image;
+	}
 
-		// This unusual syntax (the "new ImageCache.ImageLoader" stuff) is an "anonymous inner class.  It is Java's way
-		// of allowing us to pass the fetchImage method as a parameter to the ImageCache.getImage.  You may have seen this
-		// syntax before with ActionListeners.  If not, I will be happy to explain it to you.
-		return cache.getImage(url, new ImageCache.ImageLoader() {
-			@Override
-			public Image loadImage(MyURL url) {
-				return fetchImage(url);
+	/**
+	 * The work done to load one page:  fetching the document and then its images.  Cancelling a navigation
+	 * interrupts its tasks and closes their sockets, so that a page the user has navigated away from stops
+	 * using the network right away.
+	 */
+	private class Navigation implements Executor {
+		private final List<Future<?>> tasks = new ArrayList<Future<?>>();
+		private final List<CompletableFuture<Image>> images = new ArrayList<CompletableFuture<Image>>();
+		private final Set<WebTransactionClient> clients = new HashSet<WebTransactionClient>();
+		private boolean cancelled = false;
+
+		synchronized void submit(Runnable task) {
+			if (!cancelled)
+				tasks.add(loader.submit(task));
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			submit(task);
+		}
+
+		// Load an image in the background for the image cache, and repaint once it arrives.
+		CompletableFuture<Image> loadImage(final MyURL url, final int maxWidth) {
+			final CompletableFuture<Image> result = new CompletableFuture<Image>();
+			synchronized (this) {
+				if (cancelled) {
+					result.cancel(false);
+					return result;
+				}
+				images.add(result);
 			}
-		});
+			submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						result.complete(fetch(url, maxWidth));
+						imageArrived();
+					} catch (RuntimeException e) {
+						result.completeExceptionally(e);
+					}
+				}
+			});
+			return result;
+		}
+
+		// Fetch an image on this thread.  A load that is cut short by cancelling the navigation throws, so that the
+		// image cache doesn't remember it as a broken image.
+		Image fetch(MyURL url, int maxWidth) {
+			Image image = fetchImage(url, this, maxWidth);
+			if (isCancelled())
+				throw new CancellationException();
+			return image;
+		}
+
+		// Decode an image that arrived on a pipelined connection.  As with fetch, an image cut short by cancelling
+		// the navigation throws.
+		Image decode(MyURL url, WebTransactionClient response, int maxWidth) throws IOException {
+			Image image = response.getImage(maxWidth, progress(url, maxWidth));
+			if (isCancelled())
+				throw new CancellationException();
+			return image;
+		}
+
+		// Keep hold of image loads started for this navigation, so that cancelling it abandons them.
+		synchronized void track(List<CompletableFuture<Image>> loads) {
+			if (cancelled) {
+				for (CompletableFuture<Image> load : loads)
+					load.cancel(false);
+			} else {
+				images.addAll(loads);
+			}
+		}
+
+		// Show an image while it is decoded:  the page makes room for it as soon as its size is known (from its
+		// header), and it is repainted as its rows (or passes, for a progressive image) are filled in.
+		ImageDecoder.Listener progress(final MyURL url, final int maxWidth) {
+			return new ImageDecoder.Listener() {
+				private long painted = 0;
+
+				@Override
+				public void started(BufferedImage image) {
+					cache.putPartialImage(url, maxWidth, image);
+					imageArrived();
+				}
+
+				@Override
+				public void updated(BufferedImage image) {
+
+					// (a row at a time would be far more repaints than anyone can see)
+					long now = System.currentTimeMillis();
+					if (now - painted >= PROGRESS_INTERVAL && !isCancelled()) {
+						painted = now;
+						display.repaint();
+					}
+				}
+			};
+		}
+
+		// Lay the page out again (on the Event Dispatch Thread) if this navigation's page is on the screen, since
+		// the image takes up space that it didn't before.
+		void imageArrived() {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (Navigation.this == displayed)
+						display.invalidateLayout();
+				}
+			});
+		}
+
+		// Send a request that will be aborted if this navigation is cancelled.
+		WebTransactionClient open(MyURL url) throws IOException {
+			if (isCancelled())
+				throw new IOException("Cancelled");
+			WebTransactionClient client = new WebTransactionClient(url, pool, diskCache);
+			synchronized (this) {
+				if (!cancelled) {
+					clients.add(client);
+					return client;
+				}
+			}
+			client.close();
+			throw new IOException("Cancelled");
+		}
+
+		synchronized void closed(WebTransactionClient client) {
+			clients.remove(client);
+		}
+
+		synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		synchronized void cancel() {
+			cancelled = true;
+			for (Future<?> task : tasks)
+				task.cancel(true);
+			for (CompletableFuture<Image> image : images)
+				image.cancel(false);
+			for (WebTransactionClient client : clients)
+				client.abort();
+			tasks.clear();
+			images.clear();
+			clients.clear();
+		}
 	}
 
 
@@ -0,0 +1,99 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves links against the page they appear on, remembering the answers so that resolving the same link again
+ * (e.g., an image's URL, every time the page is painted) neither parses nor allocates.  Equal URLs resolve to one
+ * shared {@link MyURL} instance.
+ * <p/>
+ * The table remembers the links of the {@code maxPages} most recently used pages.  It is thread-safe.
+ */
+public class URLTable {
+
+	public static final int DEFAULT_MAX_PAGES = 64;
+	public static final int DEFAULT_MAX_URLS = 8192;
+
+	// The resolved links of each page, least recently used page first.
+	private final Map<MyURL, Map<String, MyURL>> pages;
+
+	// The one shared instance of each URL, least recently used first.
+	private final Map<MyURL, MyURL> canonical;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	public URLTable() {
+		this(DEFAULT_MAX_PAGES, DEFAULT_MAX_URLS);
+	}
+
+	/**
+	 * @param maxPages the number of pages whose links are remembered
+	 * @param maxUrls  the number of shared URLs that are remembered
+	 */
+	public URLTable(final int maxPages, final int maxUrls) {
+		pages = new LinkedHashMap<MyURL, Map<String, MyURL>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<MyURL, Map<String, MyURL>> eldest) {
+				return size() > maxPages;
+			}
+		};
+		canonical = new LinkedHashMap<MyURL, MyURL>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<MyURL, MyURL> eldest) {
+				return size() > maxUrls;
+			}
+		};
+	}
+
+	/**
+	 * Resolve a link, as {@code new MyURL(link, page)} does.
+	 *
+	 * @param link the (possibly relative) link
+	 * @param page the URL of the page the link is on (or {@code null} if the link isn't on a page)
+	 * @return the shared instance of the URL the link points to.
+	 * @throws RuntimeException if the link is malformed (which isn't remembered)
+	 */
+	public synchronized MyURL resolve(String link, MyURL page) {
+		Map<String, MyURL> links = pages.get(page);
+		if (links == null) {
+			links = new HashMap<String, MyURL>();
+			pages.put(page, links);
+		}
+		MyURL url = links.get(link);
+		if (url != null) {
+			hits++;
+			return url;
+		}
+		misses++;
+		url = intern(new MyURL(link, page));
+		links.put(link, url);
+		return url;
+	}
+
+	/**
+	 * @param url a URL
+	 * @return the shared instance that is equal to {@code url} ({@code url} itself, if there wasn't one).
+	 */
+	public synchronized MyURL intern(MyURL url) {
+		MyURL shared = canonical.get(url);
+		if (shared != null)
+			return shared;
+		canonical.put(url, url);
+		return url;
+	}
+
+	/**
+	 * @return the number of links that had already been resolved.
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of links that had to be parsed.
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+}
@@ -0,0 +1,49 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+public class URLTableTest {
+
+	private final MyURL page = new MyURL("http://www.cis.gvsu.edu/dir1/page.html");
+
+	@Test
+	public void resolvesLikeMyURL() {
+		URLTable urls = new URLTable();
+		Assert.assertEquals(new MyURL("images/logo.png", page), urls.resolve("images/logo.png", page));
+		Assert.assertEquals(new MyURL("http://other.com/x.png"), urls.resolve("http://other.com/x.png", page));
+		Assert.assertEquals(new MyURL("other.com:81/x.png"), urls.resolve("other.com:81/x.png", null));
+	}
+
+	@Test
+	public void repeatedResolutionReturnsTheSameInstance() {
+		URLTable urls = new URLTable();
+		MyURL first = urls.resolve("logo.png", page);
+		Assert.assertSame(first, urls.resolve("logo.png", page));
+		Assert.assertSame(first, urls.resolve("logo.png", new MyURL("http://www.cis.gvsu.edu/dir1/page.html")));
+		Assert.assertEquals(2, urls.hits());
+		Assert.assertEquals(1, urls.misses());
+	}
+
+	@Test
+	public void equalURLsShareAnInstance() {
+		URLTable urls = new URLTable();
+		MyURL relative = urls.resolve("logo.png", page);
+		MyURL absolute = urls.resolve("http://www.cis.gvsu.edu:80/dir1/logo.png", page);
+		Assert.assertSame(relative, absolute);
+		Assert.assertSame(relative, urls.intern(new MyURL("http://www.cis.gvsu.edu/dir1/logo.png")));
+	}
+
+	@Test
+	public void forgetsTheLeastRecentlyUsedPages() {
+		URLTable urls = new URLTable(1, 100);
+		urls.resolve("a.png", page);
+		urls.resolve("a.png", new MyURL("http://elsewhere.com/"));
+		urls.resolve("a.png", page);
+		Assert.assertEquals(0, urls.hits());
+		Assert.assertEquals(3, urls.misses());
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void complainsAboutMalformedLinks() {
+		new URLTable().resolve("www.google.com:fourteen/dir1", null);
+	}
+}
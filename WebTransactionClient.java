@@ -2,85 +2,591 @@
  * @author Paul Hood
  */
 import java.awt.image.BufferedImage;
-import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-
-import javax.imageio.ImageIO;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class WebTransactionClient {
 
 	private PrintWriter out;
-	private DataInputStream in;
-	private Socket socket;
+	private HttpInputStream in;
+	private MyURL url;
+	private ConnectionPool pool;  // where the connection goes when we're done (null if it isn't pooled)
+	private ResponseCache cache;  // null if responses aren't cached
+	private ResponseCache.Entry cached;  // the stored response being used in place of the server's (if any)
+	private boolean record;       // true if the body should be stored in the cache as it is read
+	private volatile ConnectionPool.Connection connection;
+	private InputStream body;
 	private String response;   // The entire response string (e.g., "HTTP/1.1 200 Ok")
+	private int code;          // The status code from the response string (e.g., 200)
 	private HashMap<String, String> headers = new HashMap<String, String>();
+	private Owner owner;       // for a pipelined response, the batch that the connection goes back to (else null)
+	private long received;     // bytes of the body read from the connection, as sent (i.e., still compressed)
+	private long decoded;      // bytes of the body handed to the caller, after decompression
+
+	/**
+	 * Takes back the connection of a pipelined response once its body has been read, so that the next response
+	 * can be read from it.
+	 */
+	static interface Owner {
+		void released(ConnectionPool.Connection connection, boolean reusable);
+	}
 
-	@SuppressWarnings("deprecation")
+	/**
+	 * Send a GET request for {@code url} on a new connection that is closed once the response has been read.
+	 *
+	 * @param url the URL to fetch
+	 */
 	public WebTransactionClient(MyURL url) throws IOException {
-		socket = new Socket(url.domainName(), url.port());
-		in = new DataInputStream(socket.getInputStream());
-		out = new PrintWriter(socket.getOutputStream(), true);
-		
-		// send get request
-		out.printf("GET %s HTTP/1.1\nHost: %s\n\n", url.path(),
-				url.domainName());
-		out.flush();
-		
-		// first line is response string
-		response = in.readLine();
-		
-		// get header information 
-		String line;
-		while ((line = in.readLine()).trim().length() > 0) {
-			
-			// index of semicolon that separates key & value for hash map
-			int index = line.indexOf(":");
-			
-			// get key & value, increment index to avoid semi colon
-			String key = line.substring(0, index).trim().toLowerCase();
-			String value = line.substring(index + 1).trim();
-			headers.put(key,  value);
+		this(url, (ConnectionPool) null, null);
+	}
+
+	/**
+	 * Send a GET request for {@code url} on a connection from {@code pool}.  The connection goes back to the pool
+	 * once the body has been read with {@link #getText()}, {@link #getImage()} or {@link #getBody()}.
+	 *
+	 * @param url  the URL to fetch
+	 * @param pool the pool to borrow a connection from, or {@code null} to open a private connection
+	 */
+	public WebTransactionClient(MyURL url, ConnectionPool pool) throws IOException {
+		this(url, pool, (ResponseCache) null);
+	}
+
+	/**
+	 * Fetch {@code url}, using {@code cache} where possible.  A fresh cached response is used without contacting the
+	 * server;  a stale one is revalidated with a conditional GET, and used again if the server answers
+	 * {@code 304 Not Modified}.  Either way the client looks as if the server had sent the stored response.  New
+	 * cacheable responses are stored as their bodies are read.
+	 *
+	 * @param url   the URL to fetch
+	 * @param pool  the pool to borrow a connection from, or {@code null} to open a private connection
+	 * @param cache the disk cache to use, or {@code null} to always ask the server
+	 */
+	public WebTransactionClient(MyURL url, ConnectionPool pool, ResponseCache cache) throws IOException {
+		this.url = url;
+		this.pool = pool;
+		this.cache = cache;
+
+		Map<String, String> requestHeaders = new LinkedHashMap<String, String>();
+		if (cache != null) {
+			cached = cache.lookup(url);
+			if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+				useCached();
+				return;
+			}
+			if (cached != null)
+				ResponseCache.addConditionalHeaders(cached, requestHeaders);
 		}
+
+		send(requestHeaders);
+
+		if (cached != null) {
+			if (code == 304) {
+
+				// the stored body is still good.  A 304 has no body, so the connection is done with right away (this
+				// has to happen before the stored response takes its place:  getBody() would then read the file).
+				InputStream empty = framedBody();
+				finish(canReuse(empty) && empty.read() == -1);
+				cached = cache.revalidated(url, cached, headers);
+				useCached();
+				return;
+			}
+
+			// the server sent a whole new response
+			cached = null;
+		}
+		updateCache();
+	}
+
+	// Send the request, retrying once if a reused connection turns out to be dead.
+	private void send(Map<String, String> requestHeaders) throws IOException {
+
+		// a reused connection may have been closed by the server since its health check,
+		// so if the first request on it fails, retry once on a fresh connection
+		try {
+			sendRequest(pool == null ? ConnectionPool.connect(url) : pool.checkOut(url), requestHeaders);
+		} catch (IOException e) {
+			boolean reused = connection != null && connection.requests() > 1;
+			finish(false);
+			if (!reused)
+				throw e;
+			headers.clear();
+			try {
+				sendRequest(pool.checkOut(url), requestHeaders);
+			} catch (IOException retryFailure) {
+				finish(false);
+				throw retryFailure;
+			}
+		}
+	}
+
+	private void sendRequest(ConnectionPool.Connection connection, Map<String, String> requestHeaders)
+			throws IOException {
+		this.connection = connection;
+		in = connection.input();
+		out = new PrintWriter(connection.output());
+
+		// send get request (in one write:  flushing each line would send several small packets, and on a
+		// keep-alive connection Nagle's algorithm then holds the last one back until the server's delayed ACK)
+		out.print(request(url, pool != null, requestHeaders));
+		out.flush();
+		readResponseHead();
+	}
+
+	/**
+	 * @param url            the URL to request
+	 * @param keepAlive      whether to ask the server to keep the connection open afterwards
+	 * @param requestHeaders any other headers to send
+	 * @return the text of a GET request for {@code url}.
+	 */
+	static String request(MyURL url, boolean keepAlive, Map<String, String> requestHeaders) {
+		StringBuilder request = new StringBuilder(128);
+		request.append("GET ").append(url.path()).append(" HTTP/1.1\r\nHost: ").append(url.domainName())
+				.append("\r\nConnection: ").append(keepAlive ? "keep-alive" : "close")
+				.append("\r\nAccept-Encoding: gzip, deflate\r\n");
+		for (Map.Entry<String, String> header : requestHeaders.entrySet())
+			request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		return request.append("\r\n").toString();
+	}
+
+	private void readResponseHead() throws IOException {
+
+		// first line is response string, followed by the headers
+		response = in.readResponseHead(headers);
+		if (response == null)
+			throw new IOException("Connection closed before response from " + url);
+		code = HttpInputStream.parseStatusCode(response);
+	}
+
+	// Present the stored response as if the server had just sent it.
+	private void useCached() throws IOException {
+		response = cached.statusLine();
+		headers.clear();
+		headers.putAll(cached.headers());
+		code = HttpInputStream.parseStatusCode(response);
+	}
+
+	/**
+	 * Read the response to a request that has already been sent on {@code connection} (e.g., one of several
+	 * pipelined requests).  Once the body has been read, the connection goes to {@code owner} rather than to a
+	 * pool.
+	 *
+	 * @param url        the URL that was requested
+	 * @param connection the connection the response will arrive on
+	 * @param owner      takes the connection back
+	 * @param cache      where to store the response (if it can be cached), or {@code null}
+	 * @throws IOException if the connection closes before the response arrives.
+	 */
+	WebTransactionClient(MyURL url, ConnectionPool.Connection connection, Owner owner, ResponseCache cache)
+			throws IOException {
+		this.url = url;
+		this.owner = owner;
+		this.cache = cache;
+		this.connection = connection;
+		in = connection.input();
+		readResponseHead();
+		updateCache();
+	}
+
+	// Forget a stored response the server says is gone, and store a new one (as its body is read) if it can be.
+	private void updateCache() {
+		if (cache != null && (code == 404 || code == 410))
+			cache.remove(url);
+		record = cache != null && code == 200 && ResponseCache.isCacheable(headers);
+	}
+
+	/**
+	 * @return true if the response came from the disk cache (either fresh, or revalidated by the server).
+	 */
+	public boolean isFromCache() {
+		return cached != null;
 	}
 
-	@SuppressWarnings("deprecation")
 	public String getText() throws IOException {
 		StringBuffer result = new StringBuffer();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(getBody(), charset()));
 
 		// get lines until readline is null
 		String line;
-		while ((line = in.readLine()) != null)
-			result.append(line + "\n");
+		try {
+			while ((line = reader.readLine()) != null)
+				result.append(line + "\n");
+		} finally {
+			reader.close();
+		}
 
 		return result.toString();
 	} // end getText
 
+	/**
+	 * Read the body as lines of text, decoding (and decompressing) it as it arrives rather than building the whole
+	 * text first.
+	 *
+	 * @return the lines of the body, without their line terminators.
+	 */
+	public List<String> getLines() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(getBody(), charset()));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null)
+				lines.add(line);
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
 	public BufferedImage getImage() throws IOException {
-		return ImageIO.read(in);
+		return getImage(0);
+	}
+
+	/**
+	 * Decode the body as an image no wider than it needs to be (see {@link ImageDecoder}).
+	 *
+	 * @param maxWidth the width the image will be shown at most (0 for its full size)
+	 * @return the image, or {@code null} if it isn't in a format that can be decoded.
+	 */
+	public BufferedImage getImage(int maxWidth) throws IOException {
+		return getImage(maxWidth, null);
+	}
+
+	/**
+	 * Decode the body as an image no wider than it needs to be, handing it to {@code listener} as soon as its size
+	 * is known and telling it as the pixels arrive (see {@link ImageDecoder.Listener}).
+	 *
+	 * @param maxWidth the width the image will be shown at most (0 for its full size)
+	 * @param listener watches the image being decoded (may be {@code null})
+	 * @return the image, or {@code null} if it isn't in a format that can be decoded.
+	 */
+	public BufferedImage getImage(int maxWidth, ImageDecoder.Listener listener) throws IOException {
+		InputStream body = getBody();
+		try {
+			return ImageDecoder.decode(body, maxWidth, listener);
+		} finally {
+			body.close();
+		}
+	}
+
+	/**
+	 * Return the body of the response as a stream that ends with the body's last byte (as given by
+	 * {@code Content-Length} or {@code Transfer-Encoding: chunked}) rather than when the server closes the socket.
+	 * The connection is handed back to the pool as soon as the stream reaches its end or is closed.
+	 * <p/>
+	 * A body sent with {@code Content-Encoding: gzip} or {@code deflate} is decompressed as it is read;  the
+	 * {@code Content-Encoding} and {@code Content-Length} headers are then dropped, since they no longer describe
+	 * the stream that is returned.
+	 *
+	 * @return the body of the response.
+	 * @throws IOException if the body has already been read.
+	 */
+	public InputStream getBody() throws IOException {
+		if (body != null)
+			return body;
+		if (cached != null) {
+			body = new DecodedBody(cached.openBody());
+			return body;
+		}
+		if (connection == null)
+			throw new IOException("Body has already been read");
+		InputStream framed = framedBody();
+		String encoding = contentEncoding(framed);
+		body = new ResponseBody(framed);
+		if (encoding != null) {
+			try {
+				body = decompress(body, encoding);
+			} catch (IOException e) {
+				finish(false);
+				throw e;
+			}
+			headers.remove("content-encoding");
+			headers.remove("content-length");
+		}
+		body = new DecodedBody(body);
+		if (record) {
+			try {
+				body = cache.store(url, response, headers, body);
+			} catch (IOException e) {
+				// the response just isn't cached
+			}
+		}
+		return body;
 	}
 
+	// Choose how the end of the body is found.
+	private InputStream framedBody() throws IOException {
+		// these responses never have a body, whatever the headers say
+		if ((code >= 100 && code < 200) || code == 204 || code == 304)
+			return new FixedLengthInputStream(in, 0);
+
+		String encoding = getHeader("transfer-encoding");
+		if (encoding != null && encoding.toLowerCase().contains("chunked"))
+			return new ChunkedInputStream(in);
+
+		String length = getHeader("content-length");
+		if (length != null) {
+			try {
+				return new FixedLengthInputStream(in, Long.parseLong(length));
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad Content-Length: " + length);
+			}
+		}
+
+		// no framing:  the body ends when the server closes the socket
+		return in;
+	}
+
+	// The compression to undo ("gzip" or "deflate"), or null if the body is sent as it is (or is always empty).
+	private String contentEncoding(InputStream framed) {
+		String encoding = getHeader("content-encoding");
+		if (encoding == null || (framed instanceof FixedLengthInputStream && "0".equals(getHeader("content-length"))))
+			return null;
+		encoding = encoding.trim().toLowerCase();
+		if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+			return "gzip";
+		if (encoding.equals("deflate"))
+			return "deflate";
+
+		// "identity", or a coding we can't undo:  leave the body as it is
+		return null;
+	}
+
+	// Wrap the body in a stream that decompresses it as it is read.
+	private static InputStream decompress(InputStream body, String encoding) throws IOException {
+		if (encoding.equals("gzip"))
+			return new GZIPInputStream(body, 8192);
+
+		// "deflate" is meant to be zlib data (RFC 1950), but some servers send raw deflate data (RFC 1951) instead;
+		// a zlib header has 8 in the low bits of its first byte, and its first two bytes are a multiple of 31
+		BufferedInputStream buffered = new BufferedInputStream(body, 8192);
+		buffered.mark(2);
+		int first = buffered.read();
+		int second = buffered.read();
+		buffered.reset();
+		boolean zlib = first != -1 && second != -1 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0;
+		return new InflaterInputStream(buffered, new Inflater(!zlib), 8192) {
+			@Override
+			public void close() throws IOException {
+
+				// an Inflater that the stream didn't create itself isn't ended by the stream
+				try {
+					super.close();
+				} finally {
+					inf.end();
+				}
+			}
+		};
+	}
+
+	// The connection can carry another request if the body is framed and neither side asked to close it.
+	private boolean canReuse(InputStream framed) {
+		if (framed == in)
+			return false;
+		String connectionHeader = getHeader("connection");
+		if (response.startsWith("HTTP/1.0"))
+			return "keep-alive".equalsIgnoreCase(connectionHeader);
+		return !"close".equalsIgnoreCase(connectionHeader);
+	}
+
+	// Use the charset named in the Content-Type header, or HTTP's default if there isn't one.
+	private String charset() {
+		String type = getHeader("content-type");
+		if (type != null) {
+			int index = type.toLowerCase().indexOf("charset=");
+			if (index != -1) {
+				String name = type.substring(index + "charset=".length()).replace("\"", "").trim();
+				int end = name.indexOf(';');
+				if (end != -1)
+					name = name.substring(0, end).trim();
+				if (Charset.isSupported(name))
+					return name;
+			}
+		}
+		return "ISO-8859-1";
+	}
+
+	/**
+	 * The body of the response.  Releases the connection when the end of the body is reached or the stream is
+	 * closed, so that the next request can reuse it.
+	 */
+	private class ResponseBody extends FilterInputStream {
+
+		// if more than this much of the body is left when it is closed, it's cheaper to close the socket
+		private static final int MAX_DRAIN = 64 * 1024;
+
+		private final boolean reusable;
+
+		private ResponseBody(InputStream framed) {
+			super(framed);
+			reusable = canReuse(framed);
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				int b = in.read();
+				if (b == -1)
+					finish(reusable);
+				else
+					received++;
+				return b;
+			} catch (IOException e) {
+				finish(false);
+				throw e;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				int count = in.read(b, off, len);
+				if (count == -1)
+					finish(reusable);
+				else
+					received += count;
+				return count;
+			} catch (IOException e) {
+				finish(false);
+				throw e;
+			}
+		}
+
+		// Read whatever is left of a short body so the connection is positioned at the next response.
+		@Override
+		public void close() {
+			if (connection == null)
+				return;
+			if (!reusable) {
+				finish(false);
+				return;
+			}
+			try {
+				byte[] buffer = new byte[4096];
+				int drained = 0;
+				int count;
+				while (drained <= MAX_DRAIN && (count = in.read(buffer)) != -1)
+					drained += count;
+				received += drained;
+				finish(drained <= MAX_DRAIN);
+			} catch (IOException e) {
+				finish(false);
+			}
+		}
+	}
+
+	/**
+	 * Counts the bytes of the body as the caller reads them.
+	 */
+	private class DecodedBody extends FilterInputStream {
+
+		private DecodedBody(InputStream body) {
+			super(body);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b != -1)
+				decoded++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = in.read(b, off, len);
+			if (count > 0)
+				decoded += count;
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			decoded += skipped;
+			return skipped;
+		}
+	}
+
+	// Give the connection back (if it can be reused) or close it.
+	private void finish(boolean reusable) {
+		if (connection == null)
+			return;
+		if (owner != null)
+			owner.released(connection, reusable);
+		else if (pool == null)
+			connection.close();
+		else if (reusable)
+			pool.checkIn(connection);
+		else
+			pool.discard(connection);
+		connection = null;
+	}
+
+	/**
+	 * Close the connection without reading the body.
+	 */
+	public void close() {
+		finish(false);
+		if (cached != null && body != null) {
+			try {
+				body.close();
+			} catch (IOException e) {
+				// nothing useful to do
+			}
+		}
+	}
+
+	/**
+	 * Close the connection from another thread, e.g., to cancel a request that is still being read.  The thread
+	 * reading the response gets an {@code IOException}, and gives the connection back itself.
+	 */
+	public void abort() {
+		ConnectionPool.Connection current = connection;
+		if (current != null)
+			current.abort();
+	}
 
 	public String response() {
 		return response;
 	}
 
 	public int responseCode() {
-		
-		// split response string by spaces
-		String[] responses = response.split(" ");
-		
-		// return second index of responses array with response value
-		return Integer.parseInt(responses[1]);
+		return code;
 	}
 
 	public Map<String, String> responseHeaders() {
 		return headers;
 	}
 
+	/**
+	 * @return the number of bytes of the body read from the connection so far, as the server sent them (so for a
+	 * compressed body, the compressed size);  0 for a response from the disk cache.
+	 */
+	public long bytesReceived() {
+		return received;
+	}
+
+	/**
+	 * @return the number of bytes of the body read so far after decompression (for a body that wasn't compressed,
+	 * the same as {@link #bytesReceived()}).
+	 */
+	public long bytesDecoded() {
+		return decoded;
+	}
+
 	public String getHeader(String key) {
 		return headers.get(key.toLowerCase());
 	}
@@ -90,8 +596,6 @@ public class WebTransactionClient {
 
 		// This method is complete.
 		super.finalize();
-		in.close();
-		out.close();
-		socket.close();
+		close();
 	}
-} // end WebTransactionClient
\ No newline at end of file
+} // end WebTransactionClient
@@ -2,7 +2,19 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 // Note:  This isn't a traditional unit test.  (1) A traditional unit test wouldn't actually interact with a real 
 // "live" server.  It would either (a) launch a temporary server specifically for these tests, or (2) mock out the server.
@@ -108,4 +120,141 @@ public class WebTransactionClientTest {
 		Assert.assertEquals("Location differs: ", "http://www.cis.gvsu.edu/~kurmasz/", client.getHeader("location"));
 	}
 
+	// The tests below use a LocalServer serving the sampleInput directory, so they must be run from the top of the
+	// project.
+
+	private static String file(String path) throws IOException {
+		return new String(Files.readAllBytes(new File("sampleInput", path).toPath()), StandardCharsets.ISO_8859_1);
+	}
+
+	@Test
+	public void decompressesGzippedText() throws IOException {
+		LocalServer server = new LocalServer(new File("sampleInput"));
+		ConnectionPool pool = new ConnectionPool();
+		try {
+			server.setCompress(true);
+			String expected = file("starterSample.txt");
+			WebTransactionClient client = new WebTransactionClient(server.url("starterSample.txt"), pool);
+			Assert.assertEquals("Not compressed", "gzip", client.getHeader("content-encoding"));
+			Assert.assertEquals("Text differs", expected.trim(), client.getText().trim());
+			Assert.assertNull("Still says it is compressed", client.getHeader("content-encoding"));
+			Assert.assertEquals("Decoded bytes", expected.length(), client.bytesDecoded());
+			Assert.assertTrue("Not smaller on the wire", client.bytesReceived() < client.bytesDecoded());
+
+			// and the connection is left at the end of the compressed body, ready for the next request
+			server.setChunked(true);
+			List<String> lines = new WebTransactionClient(server.url("basic.txt"), pool).getLines();
+			Assert.assertEquals("Lines differ", file("basic.txt").trim(), String.join("\n", lines).trim());
+			Assert.assertNotNull("Problem loading image",
+					new WebTransactionClient(server.url("Images/logo1.png"), pool).getImage());
+			Assert.assertEquals("Connections accepted", 1, server.connections());
+		} finally {
+			pool.close();
+			server.close();
+		}
+	}
+
+	@Test
+	public void showsImagesBeforeTheyHaveArrived() throws IOException {
+		LocalServer server = new LocalServer(new File("sampleInput"));
+		ConnectionPool pool = new ConnectionPool();
+		try {
+			server.setBytesPerSecond(50000);
+			final long size = new File("sampleInput/Images/logo2.jpeg").length();
+			final WebTransactionClient client = new WebTransactionClient(server.url("Images/logo2.jpeg"), pool);
+			final long[] receivedWhenStarted = {-1};
+			Image image = client.getImage(0, new ImageDecoder.Listener() {
+				@Override
+				public void started(BufferedImage image) {
+					receivedWhenStarted[0] = client.bytesReceived();
+				}
+
+				@Override
+				public void updated(BufferedImage image) {
+				}
+			});
+			Assert.assertNotNull("Problem loading image", image);
+			Assert.assertTrue("Started after " + receivedWhenStarted[0] + " of " + size + " bytes",
+					receivedWhenStarted[0] > 0 && receivedWhenStarted[0] < size / 2);
+			Assert.assertEquals("Bytes received", size, client.bytesReceived());
+		} finally {
+			pool.close();
+			server.close();
+		}
+	}
+
+	@Test
+	public void cachesDecompressedBodies() throws IOException {
+		LocalServer server = new LocalServer(new File("sampleInput"));
+		File directory = Files.createTempDirectory("cache").toFile();
+		try {
+			server.setCompress(true);
+			server.setCacheControl("max-age=60");
+			ResponseCache cache = new ResponseCache(directory, ResponseCache.DEFAULT_MAX_BYTES);
+			Assert.assertEquals(file("basic.txt").trim(),
+					new WebTransactionClient(server.url("basic.txt"), null, cache).getText().trim());
+
+			WebTransactionClient cached = new WebTransactionClient(server.url("basic.txt"), null, cache);
+			Assert.assertTrue("Not cached", cached.isFromCache());
+			Assert.assertNull("Stored as compressed", cached.getHeader("content-encoding"));
+			Assert.assertEquals("Text differs", file("basic.txt").trim(), cached.getText().trim());
+		} finally {
+			server.close();
+			for (File entry : directory.listFiles())
+				entry.delete();
+			directory.delete();
+		}
+	}
+
+	// Answer a single request with the given body, sent with Content-Encoding: deflate.
+	private static MyURL serveDeflated(final byte[] body) throws IOException {
+		final ServerSocket server = new ServerSocket(0);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Socket socket = server.accept();
+					InputStream in = socket.getInputStream();
+
+					// skip the request, up to the blank line at its end
+					int matched = 0;
+					int b;
+					while (matched < 4 && (b = in.read()) != -1)
+						matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : b == '\r' ? 1 : 0;
+					OutputStream out = socket.getOutputStream();
+					out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Encoding: deflate\r\n"
+							+ "Content-Length: " + body.length + "\r\nConnection: close\r\n\r\n")
+							.getBytes(StandardCharsets.ISO_8859_1));
+					out.write(body);
+					out.close();
+					server.close();
+				} catch (IOException e) {
+					// the test fails for want of a response
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return new MyURL("http://localhost:" + server.getLocalPort() + "/deflated.txt");
+	}
+
+	private static byte[] deflate(String text, boolean zlib) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, !zlib);
+		DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+		out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+		out.close();
+		deflater.end();
+		return compressed.toByteArray();
+	}
+
+	@Test(timeout = 5000)
+	public void inflatesZlibAndRawDeflate() throws IOException {
+		String text = file("starterSample.txt");
+		Assert.assertEquals("zlib", text.trim(),
+				new WebTransactionClient(serveDeflated(deflate(text, true))).getText().trim());
+		Assert.assertEquals("raw", text.trim(),
+				new WebTransactionClient(serveDeflated(deflate(text, false))).getText().trim());
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,192 @@
+package benchmark;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * The browser's hot paths, measured by JMH.  Run with "gradle jmh", which also runs the gc profiler (so each
+ * benchmark reports how much it allocates).
+ * <p/>
+ * JMH won't generate benchmarks in the default package, so the work itself is set up by the default package's
+ * BrowserBenchmark:  each benchmark here calls the BrowserBenchmark method of the same name (found by reflection,
+ * since a class in a package can't name one in the default package), and measures the workload it returns.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BrowserBenchmarks {
+
+	/**
+	 * The workload for the benchmark being run.
+	 */
+	@State(Scope.Thread)
+	public static class Operation {
+		private Callable<Object> workload;
+
+		// the argument to the BrowserBenchmark method, or null if it doesn't take one
+		Boolean param() {
+			return null;
+		}
+
+		@Setup(Level.Trial)
+		@SuppressWarnings("unchecked")
+		public void setUp(BenchmarkParams params) throws Exception {
+			String benchmark = params.getBenchmark();
+			String name = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+			Class<?> workloads = Class.forName("BrowserBenchmark");
+			Boolean param = param();
+			if (param == null)
+				workload = (Callable<Object>) workloads.getMethod(name).invoke(null);
+			else
+				workload = (Callable<Object>) workloads.getMethod(name, boolean.class).invoke(null, param);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			((AutoCloseable) workload).close();
+		}
+
+		Object call() throws Exception {
+			return workload.call();
+		}
+	}
+
+	public static class Photo extends Operation {
+		@Param({"false", "true"})
+		public boolean fitToPage;
+
+		@Override
+		Boolean param() {
+			return fitToPage;
+		}
+	}
+
+	public static class Connections extends Operation {
+		@Param({"false", "true"})
+		public boolean keepAlive;
+
+		@Override
+		Boolean param() {
+			return keepAlive;
+		}
+	}
+
+	public static class Batch extends Operation {
+		@Param({"false", "true"})
+		public boolean pipelined;
+
+		@Override
+		Boolean param() {
+			return pipelined;
+		}
+	}
+
+	public static class Back extends Operation {
+		@Param({"false", "true"})
+		public boolean kept;
+
+		@Override
+		Boolean param() {
+			return kept;
+		}
+	}
+
+	// URLs
+
+	@Benchmark
+	public Object parseAbsoluteURL(Operation operation) throws Exception {
+		return operation.call();
+	}
+
+	@Benchmark
+	public Object resolveRelativeLink(Operation operation) throws Exception {
+		return operation.call();
+	}
+
+	@Benchmark
+	public Object resolveRelativeLinkWithURLTable(Operation operation) throws Exception {
+		return operation.call();
+	}
+
+	@Benchmark
+	public Object hashMapLookup(Operation operation) throws Exception {
+		return operation.call();
+	}
+
+	// Headers
+
+	@Benchmark
+	public Object readResponseHead(Operation operation) throws Exception {
+		return operation.call();
+	}
+
+	@Benchmark
+	public Object readResponseHeadWithDataInputStream(Operation operation) throws Exception {
+		return operation.call();
+	}
+
+	// Images
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object imageCacheHits(Operation operation) throws Exception {
+		return operation.call();
+	}
+
+	@Benchmark
+	public Object decodePhoto(Photo operation) throws Exception {
+		return operation.call();
+	}
+
+	// Fetching
+
+	@Benchmark
+	public Object fetchTextAndImage(Connections operation) throws Exception {
+		return operation.call();
+	}
+
+	@Benchmark
+	public Object fetchSixImages(Batch operation) throws Exception {
+		return operation.call();
+	}
+
+	// Pages
+
+	@Benchmark
+	public Object parseSampleInput(Operation operation) throws Exception {
+		return operation.call();
+	}
+
+	@Benchmark
+	public Object layOutSampleInput(Operation operation) throws Exception {
+		return operation.call();
+	}
+
+	@Benchmark
+	public Object paintOneScreen(Operation operation) throws Exception {
+		return operation.call();
+	}
+
+	@Benchmark
+	public Object goBack(Back operation) throws Exception {
+		return operation.call();
+	}
+}